@@ -0,0 +1,52 @@
+package neko.chinaOnlyBungee;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import neko.chinaOnlyCore.EarlyRejectHandler;
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.config.ListenerInfo;
+
+import java.lang.reflect.Field;
+import java.util.logging.Logger;
+
+/**
+ * 通过反射替换BungeeCord的客户端通道初始化器（PipelineUtils.SERVER_CHILD）
+ * <p>
+ * BungeeCord在启用插件之后才监听端口并读取该字段，因此在 onEnable 中替换即可生效；
+ * 字段为 static final，只能通过 Unsafe 修改。失败时只记录警告，不影响正常的登录检测
+ */
+final class ChannelInjector {
+    private static final String PIPELINE_UTILS = "net.md_5.bungee.netty.PipelineUtils";
+
+    private ChannelInjector() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static boolean inject(ProxyServer proxy, EarlyRejectHandler handler, Logger logger) {
+        // 启用PROXY协议时连接的地址是负载均衡器的地址，要等解码PROXY协议头后才知道真实地址
+        for (ListenerInfo listener : proxy.getConfig().getListeners()) {
+            if (listener.isProxyProtocol()) {
+                logger.warning("已启用proxy_protocol，连接阶段提前拒绝不可用");
+                return false;
+            }
+        }
+
+        try {
+            Field field = Class.forName(PIPELINE_UTILS).getDeclaredField("SERVER_CHILD");
+            ChannelInitializer<Channel> original = (ChannelInitializer<Channel>) field.get(null);
+
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+            unsafeField.setAccessible(true);
+            Object unsafe = unsafeField.get(null);
+            Object base = unsafeClass.getMethod("staticFieldBase", Field.class).invoke(unsafe, field);
+            long offset = (Long) unsafeClass.getMethod("staticFieldOffset", Field.class).invoke(unsafe, field);
+            unsafeClass.getMethod("putObjectVolatile", Object.class, long.class, Object.class)
+                .invoke(unsafe, base, offset, handler.wrap(original));
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            logger.warning("无法注入BungeeCord的通道初始化器，连接阶段提前拒绝不可用: " + e);
+            return false;
+        }
+    }
+}
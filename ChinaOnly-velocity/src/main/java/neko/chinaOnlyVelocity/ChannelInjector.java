@@ -0,0 +1,45 @@
+package neko.chinaOnlyVelocity;
+
+import com.velocitypowered.api.proxy.ProxyServer;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import neko.chinaOnlyCore.EarlyRejectHandler;
+import org.slf4j.Logger;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * 通过反射替换Velocity的客户端通道初始化器（VelocityServer.cm 的 ServerChannelInitializerHolder），
+ * 在监听端口之前调用；Velocity内部结构变化导致失败时只记录警告，不影响正常的登录检测
+ */
+final class ChannelInjector {
+
+    private ChannelInjector() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static boolean inject(ProxyServer proxyServer, EarlyRejectHandler handler, Logger logger) {
+        try {
+            // 启用PROXY协议时连接的地址是负载均衡器的地址，要等解码PROXY协议头后才知道真实地址
+            Object configuration = proxyServer.getClass().getMethod("getConfiguration").invoke(proxyServer);
+            if ((Boolean) configuration.getClass().getMethod("isProxyProtocol").invoke(configuration)) {
+                logger.warn("已启用proxy-protocol，连接阶段提前拒绝不可用");
+                return false;
+            }
+
+            Field field = proxyServer.getClass().getDeclaredField("cm");
+            field.setAccessible(true);
+            Object connectionManager = field.get(proxyServer);
+            Object holder = connectionManager.getClass().getMethod("getServerChannelInitializer").invoke(connectionManager);
+            Method get = holder.getClass().getMethod("get");
+            Method set = holder.getClass().getMethod("set", ChannelInitializer.class);
+            ChannelInitializer<Channel> original = (ChannelInitializer<Channel>) get.invoke(holder);
+            set.invoke(holder, handler.wrap(original));
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.warn("无法注入Velocity的通道初始化器，连接阶段提前拒绝不可用: {}", e.toString());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package neko.chinaOnlyVelocity;
+
+import org.slf4j.Logger;
+
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * 将检测引擎使用的 java.util.logging 日志转发到Velocity注入的SLF4J Logger
+ */
+final class Slf4jLogHandler extends Handler {
+    private final Logger logger;
+
+    private Slf4jLogHandler(Logger logger) {
+        this.logger = logger;
+    }
+
+    static java.util.logging.Logger wrap(String name, Logger logger) {
+        java.util.logging.Logger julLogger = java.util.logging.Logger.getLogger(name);
+        julLogger.setUseParentHandlers(false);
+        for (Handler handler : julLogger.getHandlers()) {
+            julLogger.removeHandler(handler);
+        }
+        julLogger.addHandler(new Slf4jLogHandler(logger));
+        return julLogger;
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        int level = record.getLevel().intValue();
+        String message = record.getMessage();
+        if (level >= Level.SEVERE.intValue()) {
+            logger.error(message, record.getThrown());
+        } else if (level >= Level.WARNING.intValue()) {
+            logger.warn(message, record.getThrown());
+        } else if (level >= Level.INFO.intValue()) {
+            logger.info(message, record.getThrown());
+        } else {
+            logger.debug(message, record.getThrown());
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,84 @@
+package neko.chinaOnlyCore;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * IP地址解析和标准化：文本形式（配置、数据库迁移）与 InetAddress（连接事件）两条路径，
+ * 以改用 IpKey 之前使用的 getHostAddress 文本作为基准
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AddressParsingBenchmark {
+    private static final String[] IPV4 = {"1.20.30.40", "114.114.114.114", "223.5.5.5", "8.8.8.8"};
+    private static final String[] IPV6 = {"2408:8000:1:2::5", "240e:3a1:4c3c:9e00::1", "::ffff:1.20.30.40", "2001:db8::8a2e:370:7334"};
+
+    private InetAddress[] ipv4Addresses;
+    private InetAddress[] ipv6Addresses;
+    private int index;
+
+    @Setup
+    public void setup() throws UnknownHostException {
+        ipv4Addresses = resolve(IPV4);
+        ipv6Addresses = resolve(IPV6);
+    }
+
+    private static InetAddress[] resolve(String[] literals) throws UnknownHostException {
+        InetAddress[] addresses = new InetAddress[literals.length];
+        for (int i = 0; i < literals.length; i++) {
+            addresses[i] = InetAddress.getByName(literals[i]);
+        }
+        return addresses;
+    }
+
+    private int next() {
+        index = (index + 1) & 3;
+        return index;
+    }
+
+    @Benchmark
+    public String hostAddressIPv4() {
+        return ipv4Addresses[next()].getHostAddress();
+    }
+
+    @Benchmark
+    public String hostAddressIPv6() {
+        return ipv6Addresses[next()].getHostAddress();
+    }
+
+    @Benchmark
+    public IpKey parseIPv4() {
+        return IpKey.parse(IPV4[next()]);
+    }
+
+    @Benchmark
+    public IpKey parseIPv6() {
+        return IpKey.parse(IPV6[next()]);
+    }
+
+    @Benchmark
+    public IpKey keyOfInet4Address() {
+        return IpKey.of(ipv4Addresses[next()]);
+    }
+
+    @Benchmark
+    public IpKey keyOfInet6Address() {
+        return IpKey.of(ipv6Addresses[next()]);
+    }
+}
@@ -0,0 +1,62 @@
+package neko.chinaOnlyCore;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * 基准测试共用的测试数据和临时目录
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * 不输出 INFO 日志的记录器，避免控制台输出影响测量
+     */
+    static Logger quietLogger() {
+        Logger logger = Logger.getLogger("ChinaOnly-Benchmark");
+        logger.setUseParentHandlers(false);
+        logger.setLevel(Level.WARNING);
+        return logger;
+    }
+
+    /**
+     * 固定种子生成的 firstOctet.x.y.z 地址，每次运行都相同
+     */
+    static InetAddress[] addresses(int firstOctet, int count, long seed) throws UnknownHostException {
+        Random random = new Random(seed);
+        InetAddress[] addresses = new InetAddress[count];
+        for (int i = 0; i < count; i++) {
+            addresses[i] = InetAddress.getByAddress(new byte[] {
+                (byte) firstOctet, (byte) random.nextInt(256), (byte) random.nextInt(256), (byte) (1 + random.nextInt(254))
+            });
+        }
+        return addresses;
+    }
+
+    static IPInfo chinaInfo(IpKey key) {
+        return new IPInfo(key.toString(), "CN", "中国", "广东", "深圳", "Chinanet", "Chinanet GD", false, true,
+            new Timestamp(System.currentTimeMillis()));
+    }
+
+    static void deleteDirectory(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package neko.chinaOnlyCore;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SQLite中IP信息的读取：命中（已保存的IP）和未命中（从未查询过的IP）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DatabaseBenchmark {
+    private static final int ROWS = 10000;
+
+    @Param({"true", "false"})
+    public boolean prefixCache;
+
+    private Path directory;
+    private DatabaseManager databaseManager;
+    private IpKey[] stored;
+    private IpKey[] missing;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int index;
+
+        int next(int length) {
+            index = index + 1 < length ? index + 1 : 0;
+            return index;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("chinaonly-bench");
+        stored = keys(BenchmarkSupport.addresses(1, ROWS, 1L));
+        missing = keys(BenchmarkSupport.addresses(8, ROWS, 2L));
+
+        DatabaseManager writer = open();
+        for (IpKey key : stored) {
+            writer.saveIPInfo(key, BenchmarkSupport.chinaInfo(key));
+        }
+        // 关闭时写入全部数据，重新打开后读取不再经过写入队列
+        writer.close();
+        databaseManager = open();
+    }
+
+    private DatabaseManager open() {
+        return new DatabaseManager(directory, 4, 200, 500L, prefixCache ? 24 : 0, prefixCache ? 64 : 0,
+            BenchmarkSupport.quietLogger());
+    }
+
+    private static IpKey[] keys(InetAddress[] addresses) {
+        IpKey[] keys = new IpKey[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            keys[i] = IpKey.of(addresses[i]);
+        }
+        return keys;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        databaseManager.close();
+        BenchmarkSupport.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public IPInfo hit(Cursor cursor) {
+        return databaseManager.getIPInfo(stored[cursor.next(stored.length)]);
+    }
+
+    @Benchmark
+    public IPInfo miss(Cursor cursor) {
+        return databaseManager.getIPInfo(missing[cursor.next(missing.length)]);
+    }
+}
@@ -0,0 +1,60 @@
+package neko.chinaOnlyCore;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * ip-api.com 响应的解析：单个查询和100个IP的批量查询
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonDecodingBenchmark {
+    private static final String SINGLE_RESPONSE = "{\"status\":\"success\",\"country\":\"中国\",\"countryCode\":\"CN\","
+        + "\"regionName\":\"广东\",\"city\":\"深圳\",\"isp\":\"Chinanet\",\"org\":\"Chinanet GD\","
+        + "\"proxy\":false,\"query\":\"1.20.30.40\"}";
+
+    private String batchResponse;
+
+    @Setup
+    public void setup() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < IpApiClient.MAX_BATCH_SIZE; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(SINGLE_RESPONSE.replace("1.20.30.40", "1.20.30." + i));
+        }
+        batchResponse = builder.append(']').toString();
+    }
+
+    @Benchmark
+    public IPInfo single() {
+        return IpApiClient.parse("1.20.30.40", JsonParser.parseString(SINGLE_RESPONSE).getAsJsonObject());
+    }
+
+    @Benchmark
+    public void batch(Blackhole blackhole) {
+        JsonArray results = JsonParser.parseString(batchResponse).getAsJsonArray();
+        for (JsonElement element : results) {
+            blackhole.consume(IpApiClient.parse("1.20.30.40", element.getAsJsonObject()));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package neko.chinaOnlyCore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ISP/组织名称的代理关键词匹配，extraKeywords 用于观察关键词数量增加后的耗时
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProxyKeywordsBenchmark {
+    // 大多数连接来自普通运营商，名称不包含任何关键词，需要完整扫描
+    private static final String[] CLEAN_NAMES = {
+        "Chinanet Guangdong Province Network", "China Unicom Beijing Province Network",
+        "China Mobile Communications Corporation", "Shanghai Business Broadband Co., Ltd."
+    };
+    private static final String[] PROXY_NAMES = {
+        "Shenzhen VPN Services", "SS Networks Limited", "某某机场加速", "Global Proxy Hosting"
+    };
+
+    @Param({"0", "500"})
+    public int extraKeywords;
+
+    private ProxyKeywords keywords;
+    private int index;
+
+    @Setup
+    public void setup() {
+        List<String> contains = new ArrayList<>(ProxyKeywords.DEFAULT_CONTAINS);
+        for (int i = 0; i < extraKeywords; i++) {
+            contains.add("keyword" + i + "-net");
+        }
+        keywords = ProxyKeywords.compile(contains, ProxyKeywords.DEFAULT_WHOLE_WORDS, Collections.emptyList());
+    }
+
+    @Benchmark
+    public boolean cleanName() {
+        index = (index + 1) & 3;
+        return keywords.matches(CLEAN_NAMES[index]);
+    }
+
+    @Benchmark
+    public boolean proxyName() {
+        index = (index + 1) & 3;
+        return keywords.matches(PROXY_NAMES[index]);
+    }
+}
@@ -0,0 +1,107 @@
+package neko.chinaOnlyCore;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 一次连接检测的完整流程 {@link VerdictEngine#check}，不访问网络：
+ * <ul>
+ *   <li>verdict-cache: 命中内存缓存</li>
+ *   <li>database: 关闭内存缓存，每次都从SQLite读取</li>
+ *   <li>stub-provider: 数据库中没有记录，由本地的地址段表充当数据源完成查询</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VerdictPipelineBenchmark {
+    private static final int ADDRESSES = 1024;
+    // 1.0.0.0/8 作为中国地区的地址段，供地址段表数据源使用
+    private static final String RANGES = "apnic|CN|ipv4|1.0.0.0|16777216|20110414|allocated\n";
+
+    @Param({"verdict-cache", "database", "stub-provider"})
+    public String scenario;
+
+    private Path directory;
+    private VerdictEngine engine;
+    private InetAddress[] addresses;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int index;
+
+        int next(int length) {
+            index = index + 1 < length ? index + 1 : 0;
+            return index;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("chinaonly-bench");
+        Files.write(directory.resolve("ranges.txt"), RANGES.getBytes(StandardCharsets.ISO_8859_1));
+        addresses = BenchmarkSupport.addresses(1, ADDRESSES, 3L);
+
+        Map<String, Object> config = new HashMap<>();
+        config.put("providers.order", List.of("region-ranges"));
+        config.put("region-ranges.files", List.of("ranges.txt"));
+        config.put("ip-info-cache.refresh-after-hours", 0);
+        if (!"verdict-cache".equals(scenario)) {
+            // 不缓存检测结果，每次检测都走完整的查询流程
+            config.put("verdict-cache.max-entries", 0);
+            config.put("prefetch-ttl-seconds", 0);
+        }
+        EngineSettings settings = EngineSettings.load(config::get);
+
+        if ("database".equals(scenario)) {
+            DatabaseManager writer = new DatabaseManager(directory, 1, 200, 500L,
+                settings.getPrefixCacheIpv4Length(), settings.getPrefixCacheIpv6Length(), BenchmarkSupport.quietLogger());
+            for (InetAddress address : addresses) {
+                IpKey key = IpKey.of(address);
+                writer.saveIPInfo(key, BenchmarkSupport.chinaInfo(key));
+            }
+            writer.close();
+        }
+
+        engine = new VerdictEngine(settings, directory, BenchmarkSupport.quietLogger());
+        if ("verdict-cache".equals(scenario)) {
+            for (InetAddress address : addresses) {
+                engine.check(address).join();
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        engine.close();
+        BenchmarkSupport.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public Verdict check(Cursor cursor) {
+        return engine.check(addresses[cursor.next(addresses.length)]).join();
+    }
+}
@@ -0,0 +1,15 @@
+package neko.chinaOnlyCore;
+
+public final class ChinaRegions {
+
+    private ChinaRegions() {
+    }
+
+    /**
+     * 检查国家代码是否为中国(CN)、香港(HK)、澳门(MO)或台湾(TW)
+     */
+    public static boolean contains(String countryCode) {
+        return "CN".equals(countryCode) || "HK".equals(countryCode) ||
+                "MO".equals(countryCode) || "TW".equals(countryCode);
+    }
+}
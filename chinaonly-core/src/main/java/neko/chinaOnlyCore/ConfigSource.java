@@ -0,0 +1,85 @@
+package neko.chinaOnlyCore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 平台配置的统一读取接口，路径使用 "." 分隔
+ */
+@FunctionalInterface
+public interface ConfigSource {
+
+    /**
+     * 读取原始配置值，不存在时返回 null
+     */
+    Object get(String path);
+
+    default String getString(String path, String defaultValue) {
+        Object value = get(path);
+        return value != null ? value.toString() : defaultValue;
+    }
+
+    default boolean getBoolean(String path, boolean defaultValue) {
+        Object value = get(path);
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value != null) {
+            String text = value.toString().trim();
+            if ("true".equalsIgnoreCase(text) || "false".equalsIgnoreCase(text)) {
+                return Boolean.parseBoolean(text);
+            }
+        }
+        return defaultValue;
+    }
+
+    default long getLong(String path, long defaultValue) {
+        Object value = get(path);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value != null) {
+            try {
+                return Long.parseLong(value.toString().trim());
+            } catch (NumberFormatException ignored) {
+                // 使用默认值
+            }
+        }
+        return defaultValue;
+    }
+
+    default int getInt(String path, int defaultValue) {
+        long value = getLong(path, defaultValue);
+        return value > Integer.MAX_VALUE || value < Integer.MIN_VALUE ? defaultValue : (int) value;
+    }
+
+    default double getDouble(String path, double defaultValue) {
+        Object value = get(path);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value != null) {
+            try {
+                return Double.parseDouble(value.toString().trim());
+            } catch (NumberFormatException ignored) {
+                // 使用默认值
+            }
+        }
+        return defaultValue;
+    }
+
+    default List<String> getStringList(String path) {
+        Object value = get(path);
+        if (!(value instanceof List)) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<>();
+        for (Object element : (List<?>) value) {
+            if (element != null) {
+                result.add(element.toString());
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,129 @@
+package neko.chinaOnlyCore;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 检测前的连接频率限制：统计每个IP及其所在网段（IPv4 /24、IPv6 /64）在固定时间窗口内的连接次数，
+ * 超过上限的来源在查询缓存、数据库和在线数据源之前直接拒绝
+ * <p>
+ * 计数保存在固定大小的 count-min sketch 中：每行一个 {@link AtomicLongArray}，每格把窗口编号和计数打包在一个 long 里。
+ * 每次连接只做几次CAS，不加锁也不创建对象，内存占用与来源数量无关；哈希冲突只会高估计数
+ */
+final class ConnectionRateLimiter {
+    private static final int ROWS = 2;
+    // 每行使用不同的种子，两行同时冲突的概率很低
+    private static final long[] SEEDS = {0x2545F4914F6CDD1DL, 0x7FB5D329728EA185L};
+    // 区分IPv4和IPv6网段的哈希输入
+    private static final long IPV4_SUBNET_TAG = 4L;
+    private static final long IPV6_SUBNET_TAG = 6L;
+
+    private final AtomicLongArray[] ipRows = new AtomicLongArray[ROWS];
+    private final AtomicLongArray[] subnetRows = new AtomicLongArray[ROWS];
+    private final int mask;
+    private final long windowNanos;
+    private final long originNanos = System.nanoTime();
+    private final int maxPerIp;
+    private final int maxPerSubnet;
+
+    /**
+     * @param tableSize 每行的格数，向上取整为2的幂
+     * @param maxPerIp 每个IP每个窗口内最多的连接次数，0 表示不限制
+     * @param maxPerSubnet 每个网段每个窗口内最多的连接次数，0 表示不限制
+     */
+    ConnectionRateLimiter(int tableSize, long windowSeconds, int maxPerIp, int maxPerSubnet) {
+        int size = Integer.highestOneBit(Math.max(64, Math.min(1 << 24, tableSize)) * 2 - 1);
+        for (int row = 0; row < ROWS; row++) {
+            ipRows[row] = new AtomicLongArray(size);
+            subnetRows[row] = new AtomicLongArray(size);
+        }
+        this.mask = size - 1;
+        this.windowNanos = TimeUnit.SECONDS.toNanos(Math.max(1L, windowSeconds));
+        this.maxPerIp = maxPerIp;
+        this.maxPerSubnet = maxPerSubnet;
+    }
+
+    /**
+     * 配置了至少一项上限时创建，否则返回 null
+     */
+    static ConnectionRateLimiter create(EngineSettings settings) {
+        if (!settings.isAdmissionEnabled() || (settings.getAdmissionMaxPerIp() <= 0 && settings.getAdmissionMaxPerSubnet() <= 0)) {
+            return null;
+        }
+        return new ConnectionRateLimiter(settings.getAdmissionTableSize(), settings.getAdmissionWindowSeconds(),
+            settings.getAdmissionMaxPerIp(), settings.getAdmissionMaxPerSubnet());
+    }
+
+    /**
+     * 记录一次连接，本窗口内该IP或所在网段的连接次数超过上限时返回 false；被拒绝的连接同样计数
+     */
+    boolean tryAcquire(IpKey key) {
+        long window = currentWindow();
+        boolean admitted = true;
+        if (maxPerIp > 0 && increment(ipRows, key.getHigh(), key.getLow(), window) > maxPerIp) {
+            admitted = false;
+        }
+        if (maxPerSubnet > 0 && increment(subnetRows, subnetOf(key), subnetTag(key), window) > maxPerSubnet) {
+            admitted = false;
+        }
+        return admitted;
+    }
+
+    /**
+     * 只检查而不计数，用于服务器列表Ping等不算作连接的场合
+     */
+    boolean isLimited(IpKey key) {
+        long window = currentWindow();
+        return (maxPerIp > 0 && estimate(ipRows, key.getHigh(), key.getLow(), window) >= maxPerIp)
+            || (maxPerSubnet > 0 && estimate(subnetRows, subnetOf(key), subnetTag(key), window) >= maxPerSubnet);
+    }
+
+    private long currentWindow() {
+        return ((System.nanoTime() - originNanos) / windowNanos) & 0xFFFFFFFFL;
+    }
+
+    private static long subnetOf(IpKey key) {
+        return key.isIPv4() ? key.getIPv4() >>> 8 : key.getHigh();
+    }
+
+    private static long subnetTag(IpKey key) {
+        return key.isIPv4() ? IPV4_SUBNET_TAG : IPV6_SUBNET_TAG;
+    }
+
+    private int increment(AtomicLongArray[] rows, long a, long b, long window) {
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < ROWS; row++) {
+            AtomicLongArray slots = rows[row];
+            int index = indexOf(a, b, row);
+            long current;
+            long next;
+            do {
+                current = slots.get(index);
+                // 旧窗口的计数直接作废
+                int count = (current >>> 32) == window ? (int) current : 0;
+                next = (window << 32) | (count == Integer.MAX_VALUE ? count : count + 1);
+            } while (!slots.compareAndSet(index, current, next));
+            min = Math.min(min, (int) next);
+        }
+        return min;
+    }
+
+    private int estimate(AtomicLongArray[] rows, long a, long b, long window) {
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < ROWS; row++) {
+            long current = rows[row].get(indexOf(a, b, row));
+            min = Math.min(min, (current >>> 32) == window ? (int) current : 0);
+        }
+        return min;
+    }
+
+    private int indexOf(long a, long b, int row) {
+        long h = (a * 0x9E3779B97F4A7C15L ^ b) ^ SEEDS[row];
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+}
@@ -0,0 +1,742 @@
+package neko.chinaOnlyCore;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SQLite中的IP信息缓存
+ * <p>
+ * 使用WAL模式，读取通过一个小的只读连接池并行进行，写入由单独的写连接串行完成，
+ * 各连接的预编译语句只创建一次
+ * <p>
+ * 写入先进入队列，达到批量大小或等待一段时间后在一个事务中提交，调用线程不等待磁盘I/O
+ * <p>
+ * ip_info 以16字节的二进制地址为主键 (WITHOUT ROWID)，国家、地区、城市、ISP和ORG名称
+ * 保存在 ip_text 字典表中，代理和中国地区标记合并为 flags；结构版本保存在 PRAGMA user_version 中，
+ * 旧版本的数据库会在启动时自动升级
+ * <p>
+ * 启用网段缓存时，信息按网段（如IPv4 /24、IPv6 /64）保存，同一网段的其他IP直接命中；
+ * 单个IP的记录（如被识别为代理的IP）优先于网段记录。网段记录的主键为掩码后的16字节地址
+ * 加1字节前缀长度，与单个IP的16字节主键不会冲突
+ */
+public class DatabaseManager {
+    private static final String DB_FILE = "chinaonly.db";
+    // 等待空闲读连接的最长时间，超时视为未命中
+    private static final long READ_WAIT_MILLIS = 5000L;
+    // 遍历记录时每次读取的数量，读取之间归还读连接
+    private static final int PAGE_SIZE = 1000;
+
+    // 当前的表结构版本
+    private static final int SCHEMA_VERSION = 1;
+    private static final int FLAG_PROXY = 1;
+    private static final int FLAG_CHINA_REGION = 1 << 1;
+
+    private static final String CREATE_TEXT_TABLE_SQL = "CREATE TABLE IF NOT EXISTS ip_text (" +
+            "id INTEGER PRIMARY KEY," +
+            "value TEXT NOT NULL UNIQUE" +
+            ")";
+    private static final String CREATE_INFO_TABLE_SQL = "CREATE TABLE ip_info (" +
+            "ip BLOB PRIMARY KEY NOT NULL," +
+            "country_code TEXT," +
+            "country INTEGER," +
+            "region INTEGER," +
+            "city INTEGER," +
+            "isp INTEGER," +
+            "org INTEGER," +
+            "flags INTEGER NOT NULL," +
+            "last_updated INTEGER NOT NULL" +
+            ") WITHOUT ROWID";
+    private static final String SELECT_SQL = "SELECT i.country_code, country.value AS country, region.value AS region, " +
+            "city.value AS city, isp.value AS isp, org.value AS org, i.flags, i.last_updated FROM ip_info i " +
+            "LEFT JOIN ip_text country ON country.id = i.country " +
+            "LEFT JOIN ip_text region ON region.id = i.region " +
+            "LEFT JOIN ip_text city ON city.id = i.city " +
+            "LEFT JOIN ip_text isp ON isp.id = i.isp " +
+            "LEFT JOIN ip_text org ON org.id = i.org " +
+            "WHERE i.ip = ?";
+    // 同时查找单个IP和所在网段的记录，16字节的单个IP记录排在前面
+    private static final String SELECT_WITH_PREFIX_SQL = SELECT_SQL.replace("WHERE i.ip = ?",
+            "WHERE i.ip IN (?, ?) ORDER BY length(i.ip) LIMIT 1");
+    // 按主键顺序分页读取未过期的记录
+    private static final String SELECT_PAGE_SQL = SELECT_SQL.replace("SELECT i.country_code", "SELECT i.ip, i.country_code")
+            .replace("WHERE i.ip = ?", "WHERE i.ip > ? AND i.last_updated >= ? ORDER BY i.ip LIMIT ?");
+    private static final String INSERT_SQL = "INSERT OR REPLACE INTO ip_info " +
+            "(ip, country_code, country, region, city, isp, org, flags, last_updated) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String DELETE_SQL = "DELETE FROM ip_info WHERE ip = ?";
+
+    private final Path dataDirectory;
+    private final Logger logger;
+    // 网段缓存的前缀长度，为 0 表示按单个IP缓存
+    private final int ipv4PrefixLength;
+    private final int ipv6PrefixLength;
+    private final BlockingQueue<ReadConnection> readers;
+    private final Object writeLock = new Object();
+    private Connection writer;
+    private TextDictionary dictionary;
+    private PreparedStatement insertStatement;
+    private PreparedStatement deleteStatement;
+    private volatile boolean closed;
+    // 初始化失败时没有可用的读连接，读取直接返回 null，不再等待
+    private volatile boolean readable;
+
+    private final int writeBatchSize;
+    private final long flushIntervalMillis;
+    private final ScheduledThreadPoolExecutor writeScheduler;
+    private final Object pendingLock = new Object();
+    // 等待写入的修改，以主键区分，值为 null 表示删除；同一主键只保留最后一次修改
+    private Map<ByteBuffer, IPInfo> pendingWrites = new LinkedHashMap<>();
+    // 正在提交的修改，提交完成前读取仍以它为准
+    private Map<ByteBuffer, IPInfo> writingBatch = Map.of();
+    private boolean flushScheduled;
+    private volatile LatencyHistogram writeLatency;
+    // 每批修改提交成功后在写入线程上调用
+    private volatile Consumer<Map<ByteBuffer, IPInfo>> commitListener;
+
+    /**
+     * @param ipv4PrefixLength IPv4网段缓存的前缀长度 (8-32)，IPv4和IPv6均为 0 时按单个IP缓存
+     * @param ipv6PrefixLength IPv6网段缓存的前缀长度 (16-128)
+     */
+    public DatabaseManager(Path dataDirectory, int readConnections, int writeBatchSize, long flushIntervalMillis,
+                           int ipv4PrefixLength, int ipv6PrefixLength, Logger logger) {
+        this.dataDirectory = dataDirectory;
+        this.logger = logger;
+        boolean prefixCaching = ipv4PrefixLength > 0 || ipv6PrefixLength > 0;
+        this.ipv4PrefixLength = prefixCaching ? Math.max(8, Math.min(32, ipv4PrefixLength)) : 0;
+        this.ipv6PrefixLength = prefixCaching ? Math.max(16, Math.min(128, ipv6PrefixLength)) : 0;
+        this.readers = new ArrayBlockingQueue<>(Math.max(1, readConnections));
+        this.writeBatchSize = Math.max(1, writeBatchSize);
+        this.flushIntervalMillis = Math.max(0L, flushIntervalMillis);
+        this.writeScheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "ChinaOnly-DbWriter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 关闭时不等待尚未到时间的写入任务，剩余的修改由 close 直接写入
+        this.writeScheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        initDatabase(Math.max(1, readConnections));
+    }
+
+    private void initDatabase(int readConnections) {
+        try {
+            // 创建插件数据目录
+            java.nio.file.Files.createDirectories(dataDirectory);
+
+            // 构建数据库路径
+            String url = "jdbc:sqlite:" + dataDirectory.resolve(DB_FILE);
+
+            // 写连接负责建表和切换WAL模式，WAL模式会保存在数据库文件中
+            writer = DriverManager.getConnection(url);
+            try (Statement stmt = writer.createStatement()) {
+                stmt.execute("PRAGMA journal_mode=WAL");
+                applyPragmas(stmt);
+            }
+
+            // 创建字符串字典表，然后创建或升级IP信息表
+            try (Statement stmt = writer.createStatement()) {
+                stmt.execute(CREATE_TEXT_TABLE_SQL);
+            }
+            dictionary = new TextDictionary(writer);
+            migrateSchema();
+
+            insertStatement = writer.prepareStatement(INSERT_SQL);
+            deleteStatement = writer.prepareStatement(DELETE_SQL);
+
+            // WAL模式下读取不会被写入阻塞，多个读连接可以同时查询
+            for (int i = 0; i < readConnections; i++) {
+                Connection connection = DriverManager.getConnection(url);
+                try (Statement stmt = connection.createStatement()) {
+                    applyPragmas(stmt);
+                    stmt.execute("PRAGMA query_only=ON");
+                }
+                readers.add(new ReadConnection(connection,
+                    connection.prepareStatement(isPrefixCaching() ? SELECT_WITH_PREFIX_SQL : SELECT_SQL)));
+            }
+        } catch (SQLException | java.io.IOException e) {
+            logger.log(Level.SEVERE, "无法打开SQLite数据库", e);
+        } finally {
+            readable = !readers.isEmpty();
+        }
+    }
+
+    /**
+     * 按 user_version 创建或升级表结构；旧版本的 ip_info 表（文本IP主键）中的数据会转换后复制到新表
+     */
+    private void migrateSchema() throws SQLException {
+        int version;
+        try (Statement stmt = writer.createStatement(); ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            version = rs.next() ? rs.getInt(1) : 0;
+        }
+        if (version >= SCHEMA_VERSION) {
+            return;
+        }
+
+        boolean legacy;
+        try (Statement stmt = writer.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'ip_info'")) {
+            legacy = rs.next();
+        }
+
+        writer.setAutoCommit(false);
+        try (Statement stmt = writer.createStatement()) {
+            if (legacy) {
+                stmt.execute("ALTER TABLE ip_info RENAME TO ip_info_legacy");
+            }
+            stmt.execute(CREATE_INFO_TABLE_SQL);
+            if (legacy) {
+                copyLegacyRows();
+                stmt.execute("DROP TABLE ip_info_legacy");
+            }
+            stmt.execute("PRAGMA user_version = " + SCHEMA_VERSION);
+            writer.commit();
+        } catch (SQLException e) {
+            writer.rollback();
+            dictionary.clear();
+            throw e;
+        } finally {
+            writer.setAutoCommit(true);
+        }
+
+        if (legacy) {
+            // 释放旧表占用的空间
+            try (Statement stmt = writer.createStatement()) {
+                stmt.execute("VACUUM");
+            }
+        }
+    }
+
+    private void copyLegacyRows() throws SQLException {
+        String selectLegacySQL = "SELECT ip, country_code, country, region, city, isp, org, proxy, is_china_region, " +
+                // last_updated 以UTC文本保存，换算为时间戳后再读取，避免受时区影响
+                "CAST(strftime('%s', last_updated) AS INTEGER) AS updated_epoch FROM ip_info_legacy";
+        try (Statement stmt = writer.createStatement();
+             ResultSet rs = stmt.executeQuery(selectLegacySQL);
+             PreparedStatement insert = writer.prepareStatement(INSERT_SQL)) {
+            int batched = 0;
+            while (rs.next()) {
+                IpKey key = IpKey.parse(rs.getString("ip"));
+                if (key == null) {
+                    continue;
+                }
+                bindInsert(insert, key.toBytes(), new IPInfo(
+                    rs.getString("ip"),
+                    rs.getString("country_code"),
+                    rs.getString("country"),
+                    rs.getString("region"),
+                    rs.getString("city"),
+                    rs.getString("isp"),
+                    rs.getString("org"),
+                    rs.getBoolean("proxy"),
+                    rs.getBoolean("is_china_region"),
+                    new Timestamp(rs.getLong("updated_epoch") * 1000L)
+                ));
+                insert.addBatch();
+                if (++batched % 1000 == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+    }
+
+    /**
+     * 每个连接都需要设置的参数：WAL模式下 synchronous=NORMAL 已足够安全，
+     * 另外启用内存映射和较大的页缓存，并在数据库繁忙时等待而不是直接报错
+     */
+    private static void applyPragmas(Statement stmt) throws SQLException {
+        stmt.execute("PRAGMA synchronous=NORMAL");
+        stmt.execute("PRAGMA busy_timeout=5000");
+        stmt.execute("PRAGMA mmap_size=67108864");
+        stmt.execute("PRAGMA cache_size=-8192");
+        stmt.execute("PRAGMA temp_store=MEMORY");
+    }
+
+    /**
+     * 记录每批写入耗时的直方图
+     */
+    void setWriteLatency(LatencyHistogram writeLatency) {
+        this.writeLatency = writeLatency;
+    }
+
+    /**
+     * 设置每批修改提交成功后的回调，参数为该批修改（值为 null 表示删除），不得修改；
+     * 写入失败的修改不会传给回调
+     */
+    void setCommitListener(Consumer<Map<ByteBuffer, IPInfo>> commitListener) {
+        this.commitListener = commitListener;
+    }
+
+    /**
+     * 是否按网段缓存IP信息
+     */
+    public boolean isPrefixCaching() {
+        return ipv4PrefixLength > 0;
+    }
+
+    /**
+     * 该IP所在网段记录的前缀长度（128位形式，IPv4地址加96），未启用网段缓存时返回 0
+     */
+    int prefixBitsOf(IpKey ipKey) {
+        if (!isPrefixCaching()) {
+            return 0;
+        }
+        return ipKey.isIPv4() ? 96 + ipv4PrefixLength : ipv6PrefixLength;
+    }
+
+    /**
+     * 从数据库中获取IP信息，单个IP的记录优先，其次是所在网段的记录
+     */
+    public IPInfo getIPInfo(IpKey ipKey) {
+        String ip = ipKey.toString();
+        byte[] key = ipKey.toBytes();
+        byte[] prefixKey = isPrefixCaching() ? prefixKeyOf(key) : null;
+
+        // 尚未写入的修改优先；等待删除的记录只表示该主键没有记录，继续查找另一条记录
+        synchronized (pendingLock) {
+            ByteBuffer exact = ByteBuffer.wrap(key);
+            ByteBuffer prefix = prefixKey != null ? ByteBuffer.wrap(prefixKey) : null;
+            for (Map<ByteBuffer, IPInfo> writes : List.of(pendingWrites, writingBatch)) {
+                if (writes.containsKey(exact)) {
+                    IPInfo pending = writes.get(exact);
+                    if (pending != null) {
+                        return copyOf(pending, ip, pending.getLastUpdated());
+                    }
+                    key = null;
+                    break;
+                }
+            }
+            for (Map<ByteBuffer, IPInfo> writes : List.of(pendingWrites, writingBatch)) {
+                if (prefix != null && writes.containsKey(prefix)) {
+                    IPInfo pending = writes.get(prefix);
+                    if (pending != null) {
+                        return copyOf(pending, ip, pending.getLastUpdated());
+                    }
+                    prefixKey = null;
+                    break;
+                }
+            }
+        }
+        if (key == null && prefixKey == null) {
+            return null;
+        }
+
+        ReadConnection reader = borrowReader();
+        if (reader == null) {
+            return null;
+        }
+
+        try {
+            // 只剩一条需要查找的记录时，网段查询的两个参数使用同一个主键
+            reader.select.setBytes(1, key != null ? key : prefixKey);
+            if (isPrefixCaching()) {
+                reader.select.setBytes(2, prefixKey != null ? prefixKey : key);
+            }
+            try (ResultSet rs = reader.select.executeQuery()) {
+                if (rs.next()) {
+                    return readInfo(rs, ip);
+                }
+            }
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "读取IP信息失败: " + ip, e);
+        } finally {
+            returnReader(reader);
+        }
+
+        return null;
+    }
+
+    /**
+     * 按主键顺序遍历数据库中已写入、更新时间（秒）不早于 updatedFrom 的记录，
+     * 用于重建内存中的索引；主键为16字节的IP或17字节的网段，记录中的IP为空字符串。
+     * 分页读取，处理记录时不占用读连接
+     *
+     * @return 是否遍历了全部记录，出错或数据库关闭时为 false
+     */
+    boolean forEachIPInfo(long updatedFrom, BiConsumer<byte[], IPInfo> consumer) {
+        byte[] after = new byte[0];
+        while (!closed) {
+            List<byte[]> keys = new ArrayList<>(PAGE_SIZE);
+            List<IPInfo> infos = new ArrayList<>(PAGE_SIZE);
+            ReadConnection reader = borrowReader();
+            if (reader == null) {
+                return false;
+            }
+            try (PreparedStatement select = reader.connection.prepareStatement(SELECT_PAGE_SQL)) {
+                select.setBytes(1, after);
+                select.setLong(2, updatedFrom);
+                select.setInt(3, PAGE_SIZE);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        keys.add(rs.getBytes("ip"));
+                        infos.add(readInfo(rs, ""));
+                    }
+                }
+            } catch (SQLException e) {
+                logger.log(Level.WARNING, "遍历IP信息失败", e);
+                return false;
+            } finally {
+                returnReader(reader);
+            }
+
+            for (int i = 0; i < keys.size(); i++) {
+                consumer.accept(keys.get(i), infos.get(i));
+            }
+            if (keys.size() < PAGE_SIZE) {
+                return true;
+            }
+            after = keys.get(keys.size() - 1);
+        }
+        return false;
+    }
+
+    private static IPInfo readInfo(ResultSet rs, String ip) throws SQLException {
+        int flags = rs.getInt("flags");
+        return new IPInfo(
+            ip,
+            text(rs, "country_code"),
+            text(rs, "country"),
+            text(rs, "region"),
+            text(rs, "city"),
+            text(rs, "isp"),
+            text(rs, "org"),
+            (flags & FLAG_PROXY) != 0,
+            (flags & FLAG_CHINA_REGION) != 0,
+            new Timestamp(rs.getLong("last_updated") * 1000L)
+        );
+    }
+
+    private static String text(ResultSet rs, String column) throws SQLException {
+        String value = rs.getString(column);
+        return value != null ? value : "";
+    }
+
+    /**
+     * 网段记录的主键：按前缀长度掩码后的16字节地址，最后1字节为128位形式下的前缀长度
+     */
+    private byte[] prefixKeyOf(byte[] key) {
+        // IPv4映射形式：前10字节为0，随后2字节为0xFF
+        boolean ipv4 = key[10] == (byte) 0xFF && key[11] == (byte) 0xFF;
+        for (int i = 0; ipv4 && i < 10; i++) {
+            ipv4 = key[i] == 0;
+        }
+        int bits = ipv4 ? 96 + ipv4PrefixLength : ipv6PrefixLength;
+        byte[] prefixKey = new byte[17];
+        for (int i = 0; i < 16; i++) {
+            int keep = Math.max(0, Math.min(8, bits - 8 * i));
+            prefixKey[i] = (byte) (key[i] & (0xFF00 >>> keep));
+        }
+        prefixKey[16] = (byte) bits;
+        return prefixKey;
+    }
+
+    private ReadConnection borrowReader() {
+        if (closed || !readable) {
+            return null;
+        }
+        try {
+            return readers.poll(READ_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private void returnReader(ReadConnection reader) {
+        readers.offer(reader);
+        // 关闭期间归还的连接直接释放
+        if (closed && readers.remove(reader)) {
+            closeQuietly(reader.connection);
+        }
+    }
+
+    /**
+     * 将IP信息加入写入队列；启用网段缓存时保存为所在网段的记录，并删除该IP自身的记录
+     */
+    public void saveIPInfo(IpKey ipKey, IPInfo ipInfo) {
+        byte[] key = ipKey.toBytes();
+        // 队列中的信息以加入时间作为更新时间，与写入后从数据库读取的结果一致
+        IPInfo queued = copyOf(ipInfo, ipInfo.getIp(), new Timestamp(System.currentTimeMillis()));
+        if (isPrefixCaching()) {
+            enqueue(prefixKeyOf(key), queued);
+            enqueue(key, null);
+        } else {
+            enqueue(key, queued);
+        }
+    }
+
+    /**
+     * 只保存该IP自身的记录，启用网段缓存时用于覆盖同一网段的结果（如被识别为代理的IP）
+     */
+    public void saveExactIPInfo(IpKey ipKey, IPInfo ipInfo) {
+        enqueue(ipKey.toBytes(), copyOf(ipInfo, ipInfo.getIp(), new Timestamp(System.currentTimeMillis())));
+    }
+
+    /**
+     * 删除该IP自身的记录，不影响所在网段的记录
+     */
+    public void deleteIPInfo(IpKey ipKey) {
+        enqueue(ipKey.toBytes(), null);
+    }
+
+    private static IPInfo copyOf(IPInfo ipInfo, String ip, Timestamp lastUpdated) {
+        return new IPInfo(
+            ip,
+            ipInfo.getCountryCode(),
+            ipInfo.getCountry(),
+            ipInfo.getRegion(),
+            ipInfo.getCity(),
+            ipInfo.getIsp(),
+            ipInfo.getOrg(),
+            ipInfo.isProxy(),
+            ipInfo.isChinaRegion(),
+            lastUpdated
+        );
+    }
+
+    private void enqueue(byte[] key, IPInfo ipInfo) {
+        boolean flushNow;
+        boolean scheduleFlush = false;
+        synchronized (pendingLock) {
+            if (closed) {
+                return;
+            }
+            pendingWrites.put(ByteBuffer.wrap(key), ipInfo);
+            flushNow = pendingWrites.size() >= writeBatchSize;
+            if (!flushScheduled) {
+                flushScheduled = true;
+                scheduleFlush = true;
+            }
+        }
+        try {
+            if (flushNow) {
+                writeScheduler.execute(this::flush);
+            } else if (scheduleFlush) {
+                writeScheduler.schedule(this::flush, flushIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (RejectedExecutionException e) {
+            // 正在关闭，剩余的修改由 close 写入
+        }
+    }
+
+    /**
+     * 提交队列中的所有修改，提交期间到达的修改会进入下一个事务
+     */
+    private void flush() {
+        while (true) {
+            Map<ByteBuffer, IPInfo> batch;
+            synchronized (pendingLock) {
+                if (pendingWrites.isEmpty()) {
+                    flushScheduled = false;
+                    return;
+                }
+                batch = pendingWrites;
+                pendingWrites = new LinkedHashMap<>();
+                writingBatch = batch;
+            }
+            try {
+                Consumer<Map<ByteBuffer, IPInfo>> listener = commitListener;
+                if (writeBatch(batch) && listener != null) {
+                    listener.accept(batch);
+                }
+            } finally {
+                synchronized (pendingLock) {
+                    writingBatch = Map.of();
+                }
+            }
+        }
+    }
+
+    /**
+     * 在一个事务中写入一批修改，失败时回滚并丢弃这批修改
+     *
+     * @return 是否提交成功
+     */
+    private boolean writeBatch(Map<ByteBuffer, IPInfo> batch) {
+        synchronized (writeLock) {
+            if (writer == null || insertStatement == null) {
+                return false;
+            }
+            long startNanos = System.nanoTime();
+            try {
+                writer.setAutoCommit(false);
+                for (Map.Entry<ByteBuffer, IPInfo> entry : batch.entrySet()) {
+                    byte[] key = entry.getKey().array();
+                    IPInfo ipInfo = entry.getValue();
+                    if (ipInfo == null) {
+                        deleteStatement.setBytes(1, key);
+                        deleteStatement.addBatch();
+                        continue;
+                    }
+                    bindInsert(insertStatement, key, ipInfo);
+                    insertStatement.addBatch();
+                }
+                // 每个主键只有一条修改，删除和插入的先后顺序不影响结果
+                deleteStatement.executeBatch();
+                insertStatement.executeBatch();
+                writer.commit();
+                LatencyHistogram histogram = writeLatency;
+                if (histogram != null) {
+                    histogram.recordSince(startNanos);
+                }
+                return true;
+            } catch (SQLException e) {
+                logger.log(Level.WARNING, "写入IP信息失败，已丢弃 " + batch.size() + " 条修改", e);
+                // 回滚后字典中新加入的字符串也不存在了
+                dictionary.clear();
+                try {
+                    writer.rollback();
+                } catch (SQLException rollbackError) {
+                    logger.log(Level.WARNING, "回滚写入失败", rollbackError);
+                }
+                return false;
+            } finally {
+                try {
+                    writer.setAutoCommit(true);
+                } catch (SQLException e) {
+                    logger.log(Level.WARNING, "恢复自动提交失败", e);
+                }
+            }
+        }
+    }
+
+    private void bindInsert(PreparedStatement insert, byte[] key, IPInfo ipInfo) throws SQLException {
+        insert.setBytes(1, key);
+        insert.setString(2, ipInfo.getCountryCode());
+        bindText(insert, 3, ipInfo.getCountry());
+        bindText(insert, 4, ipInfo.getRegion());
+        bindText(insert, 5, ipInfo.getCity());
+        bindText(insert, 6, ipInfo.getIsp());
+        bindText(insert, 7, ipInfo.getOrg());
+        insert.setInt(8, (ipInfo.isProxy() ? FLAG_PROXY : 0) | (ipInfo.isChinaRegion() ? FLAG_CHINA_REGION : 0));
+        insert.setLong(9, ipInfo.getLastUpdated() != null
+            ? ipInfo.getLastUpdated().getTime() / 1000L : System.currentTimeMillis() / 1000L);
+    }
+
+    private void bindText(PreparedStatement insert, int index, String value) throws SQLException {
+        Long id = dictionary.idOf(value);
+        if (id != null) {
+            insert.setLong(index, id);
+        } else {
+            insert.setNull(index, Types.INTEGER);
+        }
+    }
+
+    /**
+     * 写入队列中剩余的修改后关闭数据库连接，正在使用的读连接在归还时关闭
+     */
+    public void close() {
+        synchronized (pendingLock) {
+            closed = true;
+        }
+        writeScheduler.shutdown();
+        try {
+            writeScheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+
+        ReadConnection reader;
+        while ((reader = readers.poll()) != null) {
+            closeQuietly(reader.connection);
+        }
+        synchronized (writeLock) {
+            if (writer != null) {
+                // 关闭前合并WAL文件，避免留下较大的 -wal 文件
+                try (Statement stmt = writer.createStatement()) {
+                    stmt.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+                } catch (SQLException e) {
+                    logger.log(Level.WARNING, "合并WAL文件失败", e);
+                }
+                closeQuietly(writer);
+            }
+        }
+    }
+
+    private void closeQuietly(Connection connection) {
+        try {
+            if (!connection.isClosed()) {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "关闭数据库连接失败", e);
+        }
+    }
+
+    /**
+     * ip_text 字典表，相同的名称只保存一次，ip_info 中只保存编号；只在写连接上使用，
+     * 最近用过的编号缓存在内存中
+     */
+    private static final class TextDictionary {
+        private static final int CACHE_SIZE = 10000;
+
+        private final PreparedStatement insert;
+        private final PreparedStatement select;
+        private final Map<String, Long> cache = new LinkedHashMap<String, Long>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+        TextDictionary(Connection connection) throws SQLException {
+            this.insert = connection.prepareStatement("INSERT OR IGNORE INTO ip_text (value) VALUES (?)");
+            this.select = connection.prepareStatement("SELECT id FROM ip_text WHERE value = ?");
+        }
+
+        /**
+         * 获取字符串的编号，不存在时加入字典；空字符串返回 null
+         */
+        Long idOf(String value) throws SQLException {
+            if (value == null || value.isEmpty()) {
+                return null;
+            }
+            Long id = cache.get(value);
+            if (id != null) {
+                return id;
+            }
+            insert.setString(1, value);
+            insert.executeUpdate();
+            select.setString(1, value);
+            try (ResultSet rs = select.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("无法保存字符串: " + value);
+                }
+                id = rs.getLong(1);
+            }
+            cache.put(value, id);
+            return id;
+        }
+
+        void clear() {
+            cache.clear();
+        }
+    }
+
+    /**
+     * 读连接和它的预编译查询语句，同一时间只由一个线程使用
+     */
+    private static final class ReadConnection {
+        final Connection connection;
+        final PreparedStatement select;
+
+        ReadConnection(Connection connection, PreparedStatement select) {
+            this.connection = connection;
+            this.select = select;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package neko.chinaOnlyCore;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 已知被拒绝的IP和网段的计数布隆过滤器，与数据库中被拒绝的记录对应，由 {@link DeniedFilterTracker} 维护
+ * <p>
+ * 每个计数器占4位，16个打包在一个 long 中，增减都用CAS完成，不加锁也不创建对象；
+ * 计数器支持删除，但只能移除确实加入过的记录，否则会减掉其他记录的计数。
+ * 没有命中表示一定不是已知被拒绝的来源；命中时有很小的概率误判，调用方需要在后台确认
+ */
+final class DeniedFilter {
+    private static final int COUNTERS_PER_SLOT = 16;
+    // 达到上限的计数器不再增减，避免溢出后误删其他记录
+    private static final long COUNTER_MAX = 15L;
+    // IP自身的记录使用的前缀长度
+    private static final int EXACT_BITS = 128;
+
+    private final AtomicLongArray slots;
+    private final long counters;
+    private final int hashes;
+    private final LongAdder entries = new LongAdder();
+    // 从数据库重建完成前不用于拒绝连接
+    private volatile boolean ready;
+
+    /**
+     * @param expectedEntries 预计的记录数量，超过后误判率逐渐升高
+     * @param falsePositiveRate 达到预计数量时的误判率
+     */
+    DeniedFilter(int expectedEntries, double falsePositiveRate) {
+        int n = Math.max(1000, expectedEntries);
+        double p = Math.max(1e-9, Math.min(0.1, falsePositiveRate));
+        double ln2 = Math.log(2);
+        long bits = (long) Math.ceil(-n * Math.log(p) / (ln2 * ln2));
+        this.hashes = (int) Math.max(1, Math.min(16, Math.round((double) bits / n * ln2)));
+        int length = (int) Math.min(Integer.MAX_VALUE - 8, (bits + COUNTERS_PER_SLOT - 1) / COUNTERS_PER_SLOT);
+        this.slots = new AtomicLongArray(length);
+        this.counters = (long) length * COUNTERS_PER_SLOT;
+    }
+
+    /**
+     * 启用时按配置创建，否则返回 null
+     */
+    static DeniedFilter create(EngineSettings settings) {
+        if (!settings.isDeniedFilterEnabled()) {
+            return null;
+        }
+        return new DeniedFilter(settings.getDeniedFilterExpectedEntries(), settings.getDeniedFilterFalsePositiveRate());
+    }
+
+    boolean isReady() {
+        return ready;
+    }
+
+    void markReady() {
+        ready = true;
+    }
+
+    /**
+     * 过滤器中的记录数量（近似值）
+     */
+    long size() {
+        return Math.max(0L, entries.sum());
+    }
+
+    /**
+     * 该IP自身或所在网段是否可能被拒绝过
+     *
+     * @param prefixBits 网段记录的前缀长度（128位形式），为 0 时只检查IP自身
+     */
+    boolean mightContain(IpKey key, int prefixBits) {
+        return contains(key.getHigh(), key.getLow(), EXACT_BITS)
+            || (prefixBits > 0 && contains(maskHigh(key.getHigh(), prefixBits), maskLow(key.getLow(), prefixBits), prefixBits));
+    }
+
+    /**
+     * 加入数据库中的记录：16字节的IP主键或17字节的网段主键；调用方保证该记录尚未加入
+     */
+    void add(byte[] databaseKey) {
+        update(databaseKey, 1L);
+        entries.increment();
+    }
+
+    /**
+     * 移除数据库中的记录；调用方保证该记录已经加入
+     */
+    void remove(byte[] databaseKey) {
+        update(databaseKey, -1L);
+        entries.decrement();
+    }
+
+    private void update(byte[] databaseKey, long delta) {
+        int bits = databaseKey.length > 16 ? databaseKey[16] & 0xFF : EXACT_BITS;
+        long h1 = hash(readLong(databaseKey, 0), readLong(databaseKey, 8), bits);
+        long h2 = secondHash(h1);
+        for (int i = 0; i < hashes; i++) {
+            update(index(h1, h2, i), delta);
+        }
+    }
+
+    private boolean contains(long high, long low, int bits) {
+        long h1 = hash(high, low, bits);
+        long h2 = secondHash(h1);
+        for (int i = 0; i < hashes; i++) {
+            long index = index(h1, h2, i);
+            long slot = slots.get((int) (index / COUNTERS_PER_SLOT));
+            if (((slot >>> shiftOf(index)) & COUNTER_MAX) == 0L) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void update(long index, long delta) {
+        int slotIndex = (int) (index / COUNTERS_PER_SLOT);
+        int shift = shiftOf(index);
+        long current;
+        long next;
+        do {
+            current = slots.get(slotIndex);
+            long counter = (current >>> shift) & COUNTER_MAX;
+            if (counter == COUNTER_MAX || counter + delta < 0L) {
+                return;
+            }
+            next = (current & ~(COUNTER_MAX << shift)) | ((counter + delta) << shift);
+        } while (!slots.compareAndSet(slotIndex, current, next));
+    }
+
+    private static int shiftOf(long index) {
+        return (int) (index % COUNTERS_PER_SLOT) * 4;
+    }
+
+    private long index(long h1, long h2, int i) {
+        return ((h1 + i * h2) >>> 1) % counters;
+    }
+
+    private static long hash(long high, long low, int bits) {
+        return mix(high * 0x9E3779B97F4A7C15L ^ low ^ (long) bits << 56);
+    }
+
+    private static long secondHash(long h1) {
+        // 步长不为0，各次哈希不会落在同一个位置
+        return mix(h1 ^ 0x2545F4914F6CDD1DL) | 1L;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long maskHigh(long high, int bits) {
+        return bits >= 64 ? high : high & (-1L << (64 - bits));
+    }
+
+    private static long maskLow(long low, int bits) {
+        if (bits >= 128) {
+            return low;
+        }
+        return bits <= 64 ? 0L : low & (-1L << (128 - bits));
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0L;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFFL);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,201 @@
+package neko.chinaOnlyCore;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+/**
+ * 保持已知拒绝过滤器与数据库中的记录一致：一条记录当且仅当它被拒绝且未过期时在过滤器中，
+ * 且只计数一次
+ * <p>
+ * 过滤器只在写入线程提交成功后更新，写入失败的记录不会留在过滤器中；在过滤器中的主键同时保存在内存中，
+ * 更新时无需读取数据库。检测线程只读取过滤器，不等待这里的锁
+ */
+final class DeniedFilterTracker {
+    // 移除过期记录的间隔（秒）
+    private static final long SWEEP_INTERVAL_SECONDS = 60L;
+
+    private final DatabaseManager database;
+    // 记录的IP信息在当前配置下是否被拒绝
+    private final Predicate<IPInfo> denied;
+    private final Logger logger;
+    private final ScheduledExecutorService executor;
+
+    private final Object lock = new Object();
+    // 未启用时为 null；只在锁内修改
+    private volatile DeniedFilter filter;
+    // 在过滤器中的主键及其更新时间（秒），与过滤器中的计数一一对应
+    private Map<ByteBuffer, Long> members = new HashMap<>();
+    // 记录的有效期（秒），为 0 表示不过期
+    private long expireAfterSeconds;
+    // 重建期间提交过修改的主键，遍历数据库时跳过；没有重建时为 null
+    private Set<ByteBuffer> touched;
+    private ScheduledFuture<?> sweepTask;
+
+    DeniedFilterTracker(DatabaseManager database, Predicate<IPInfo> denied, Logger logger) {
+        this.database = database;
+        this.denied = denied;
+        this.logger = logger;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ChinaOnly-DeniedFilter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        database.setCommitListener(this::onCommit);
+    }
+
+    /**
+     * 在后台用新的过滤器从数据库重建，重建完成前不用于拒绝连接
+     *
+     * @param next 新的过滤器，为 null 时停用
+     * @param expireAfterSeconds 记录的有效期（秒），为 0 表示不过期
+     */
+    void rebuild(DeniedFilter next, long expireAfterSeconds) {
+        try {
+            executor.execute(() -> runRebuild(next, expireAfterSeconds));
+        } catch (RejectedExecutionException e) {
+            // 已关闭
+        }
+    }
+
+    /**
+     * 该IP自身或所在网段是否可能被拒绝过；过滤器未启用或正在重建时返回 false
+     */
+    boolean mightContain(IpKey key) {
+        DeniedFilter current = filter;
+        return current != null && current.isReady() && current.mightContain(key, database.prefixBitsOf(key));
+    }
+
+    /**
+     * /chinaonly stats 显示的状态，未启用时返回 null
+     */
+    String describe() {
+        DeniedFilter current = filter;
+        if (current == null) {
+            return null;
+        }
+        return current.isReady() ? "约 " + current.size() + " 条记录" : "正在重建";
+    }
+
+    void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 一批修改提交成功后在写入线程上调用，值为 null 表示删除
+     */
+    private void onCommit(Map<ByteBuffer, IPInfo> batch) {
+        synchronized (lock) {
+            DeniedFilter current = filter;
+            if (current == null) {
+                return;
+            }
+            long cutoff = cutoffSeconds();
+            for (Map.Entry<ByteBuffer, IPInfo> entry : batch.entrySet()) {
+                ByteBuffer key = entry.getKey();
+                IPInfo ipInfo = entry.getValue();
+                if (ipInfo != null && isMember(ipInfo, cutoff)) {
+                    if (members.put(key, updatedSeconds(ipInfo)) == null) {
+                        current.add(key.array());
+                    }
+                } else if (members.remove(key) != null) {
+                    current.remove(key.array());
+                }
+                if (touched != null) {
+                    touched.add(key);
+                }
+            }
+        }
+    }
+
+    private void runRebuild(DeniedFilter next, long expireAfterSeconds) {
+        long cutoff;
+        synchronized (lock) {
+            if (sweepTask != null) {
+                sweepTask.cancel(false);
+                sweepTask = null;
+            }
+            filter = next;
+            members = new HashMap<>();
+            this.expireAfterSeconds = expireAfterSeconds;
+            touched = next != null ? new HashSet<>() : null;
+            cutoff = cutoffSeconds();
+        }
+        if (next == null) {
+            return;
+        }
+
+        // 遍历期间提交的修改已由 onCommit 处理，以提交的结果为准
+        boolean complete = database.forEachIPInfo(cutoff, (key, ipInfo) -> {
+            synchronized (lock) {
+                ByteBuffer wrapped = ByteBuffer.wrap(key);
+                if (!touched.contains(wrapped) && denied.test(ipInfo)) {
+                    members.put(wrapped, updatedSeconds(ipInfo));
+                    next.add(key);
+                }
+            }
+        });
+        synchronized (lock) {
+            touched = null;
+            if (!complete) {
+                // 无法确定哪些记录在过滤器中，重新加载配置时再重建
+                filter = null;
+                members = new HashMap<>();
+                logger.warning("读取数据库失败，已知拒绝过滤器已停用");
+                return;
+            }
+            next.markReady();
+            if (expireAfterSeconds > 0) {
+                sweepTask = executor.scheduleWithFixedDelay(this::sweep,
+                    SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            }
+        }
+        logger.info("已知拒绝过滤器已从数据库重建: " + next.size() + " 条记录");
+    }
+
+    /**
+     * 移除已过期的记录，过期的记录在下次连接时会重新查询
+     */
+    private void sweep() {
+        synchronized (lock) {
+            DeniedFilter current = filter;
+            if (current == null || expireAfterSeconds <= 0) {
+                return;
+            }
+            long cutoff = cutoffSeconds();
+            Iterator<Map.Entry<ByteBuffer, Long>> iterator = members.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<ByteBuffer, Long> entry = iterator.next();
+                if (entry.getValue() < cutoff) {
+                    iterator.remove();
+                    current.remove(entry.getKey().array());
+                }
+            }
+        }
+    }
+
+    /**
+     * 更新时间（秒）早于该值的记录已过期；不过期时为 Long.MIN_VALUE
+     */
+    private long cutoffSeconds() {
+        return expireAfterSeconds > 0 ? System.currentTimeMillis() / 1000L - expireAfterSeconds : Long.MIN_VALUE;
+    }
+
+    private boolean isMember(IPInfo ipInfo, long cutoff) {
+        return updatedSeconds(ipInfo) >= cutoff && denied.test(ipInfo);
+    }
+
+    private static long updatedSeconds(IPInfo ipInfo) {
+        return ipInfo.getLastUpdated() != null ? ipInfo.getLastUpdated().getTime() / 1000L : Long.MIN_VALUE;
+    }
+}
@@ -0,0 +1,53 @@
+package neko.chinaOnlyCore;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+/**
+ * 放在代理端Netty管道最前面的处理器：连接建立时用 {@link VerdictEngine#checkEarly(java.net.InetAddress)} 检查来源，
+ * 已知会被拒绝的连接在解码任何数据包、触发任何事件之前直接关闭；检查通过后从管道中移除自身
+ * <p>
+ * 只用于Velocity和BungeeCord，Netty由代理提供
+ */
+@ChannelHandler.Sharable
+public final class EarlyRejectHandler extends ChannelInboundHandlerAdapter {
+    public static final String NAME = "chinaonly-early-reject";
+
+    private final VerdictEngine engine;
+
+    public EarlyRejectHandler(VerdictEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * 包装代理原有的通道初始化器：先执行原有的初始化，再把本处理器加到管道最前面
+     */
+    public ChannelInitializer<Channel> wrap(ChannelInitializer<Channel> original) {
+        return new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel channel) {
+                // 加入管道时原有的初始化器立即执行并移除自身
+                channel.pipeline().addLast(original);
+                channel.pipeline().addFirst(NAME, EarlyRejectHandler.this);
+            }
+        };
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        SocketAddress remote = ctx.channel().remoteAddress();
+        if (remote instanceof InetSocketAddress && ((InetSocketAddress) remote).getAddress() != null
+            && engine.checkEarly(((InetSocketAddress) remote).getAddress()) != null) {
+            ctx.close();
+            return;
+        }
+        ctx.pipeline().remove(this);
+        super.channelActive(ctx);
+    }
+}
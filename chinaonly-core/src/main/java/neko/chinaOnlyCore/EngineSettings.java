@@ -0,0 +1,211 @@
+package neko.chinaOnlyCore;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public final class EngineSettings {
+    public static final String DEFAULT_DENIED_MESSAGE = "仅允许来自中国大陆的家庭用户连接。代理、VPN或非中国地区的IP地址已被拒绝。";
+
+    private final Set<String> deniedRegions;
+    private final boolean enableRegionRestriction;
+    private final String deniedMessage;
+    private final ProxyKeywords proxyKeywords;
+    private final long lookupTimeoutMillis;
+    private final long httpConnectTimeoutMillis;
+    private final long httpReadTimeoutMillis;
+    private final int maxConcurrentLookups;
+    private final int lookupQueueSize;
+    private final boolean prefetchOnPing;
+    private final long prefetchTtlSeconds;
+    private final long failedLookupRetainSeconds;
+    private final int verdictCacheMaxEntries;
+    private final long verdictCacheTtlSeconds;
+    private final List<String> localDatabaseFiles;
+    private final boolean remoteFallback;
+    private final boolean remoteCheckForChina;
+    private final List<String> regionRangeFiles;
+    private final boolean batchEnabled;
+    private final int batchMaxSize;
+    private final long batchLingerMillis;
+    private final List<String> providerOrder;
+    private final boolean hedgingEnabled;
+    private final long hedgingInitialDelayMillis;
+    private final long hedgingMinDelayMillis;
+    private final int breakerFailureThreshold;
+    private final long breakerOpenSeconds;
+    private final OutagePolicy outagePolicy;
+    private final long staleMaxAgeSeconds;
+    private final long recheckIntervalSeconds;
+    private final int databaseReadConnections;
+    private final int databaseWriteBatchSize;
+    private final long databaseFlushIntervalMillis;
+    private final boolean prefixCacheEnabled;
+    private final int prefixCacheIpv4Length;
+    private final int prefixCacheIpv6Length;
+    private final long ipInfoRefreshAfterSeconds;
+    private final long ipInfoExpireAfterSeconds;
+    private final long refreshIntervalSeconds;
+    private final int refreshMaxPerRound;
+    private final int refreshMinRemainingRequests;
+    private final boolean admissionEnabled;
+    private final long admissionWindowSeconds;
+    private final int admissionMaxPerIp;
+    private final int admissionMaxPerSubnet;
+    private final int admissionTableSize;
+    private final boolean deniedFilterEnabled;
+    private final int deniedFilterExpectedEntries;
+    private final double deniedFilterFalsePositiveRate;
+    private final boolean earlyRejectEnabled;
+    private final boolean prometheusEnabled;
+    private final String prometheusHost;
+    private final int prometheusPort;
+
+    private EngineSettings(ConfigSource config) {
+        Set<String> regions = new HashSet<>();
+        // 过滤掉空字符串
+        for (String region : config.getStringList("denied-regions")) {
+            if (region != null && !region.trim().isEmpty()) {
+                regions.add(region.trim().toUpperCase());
+            }
+        }
+        this.deniedRegions = Collections.unmodifiableSet(regions);
+        this.enableRegionRestriction = config.getBoolean("enable-region-restriction", true);
+        this.deniedMessage = config.getString("denied-message", DEFAULT_DENIED_MESSAGE);
+        this.proxyKeywords = ProxyKeywords.compile(
+            config.get("proxy-keywords.contains") != null
+                ? config.getStringList("proxy-keywords.contains") : ProxyKeywords.DEFAULT_CONTAINS,
+            config.get("proxy-keywords.whole-words") != null
+                ? config.getStringList("proxy-keywords.whole-words") : ProxyKeywords.DEFAULT_WHOLE_WORDS,
+            config.getStringList("proxy-keywords.patterns"));
+        this.lookupTimeoutMillis = Math.max(1L, config.getLong("lookup-timeout-ms", 6000L));
+        this.httpConnectTimeoutMillis = Math.max(1L, config.getLong("http.connect-timeout-ms", 3000L));
+        this.httpReadTimeoutMillis = Math.max(1L, config.getLong("http.read-timeout-ms", 5000L));
+        this.maxConcurrentLookups = Math.max(1, config.getInt("max-concurrent-lookups", 8));
+        this.lookupQueueSize = Math.max(1, config.getInt("lookup-queue-size", 256));
+        this.prefetchOnPing = config.getBoolean("prefetch-on-ping", true);
+        this.prefetchTtlSeconds = Math.max(0L, config.getLong("prefetch-ttl-seconds", 30L));
+        this.failedLookupRetainSeconds = Math.max(0L, config.getLong("failed-lookup-retain-seconds", 5L));
+        this.verdictCacheMaxEntries = Math.max(0, config.getInt("verdict-cache.max-entries", 100000));
+        this.verdictCacheTtlSeconds = Math.max(1L, config.getLong("verdict-cache.ttl-seconds", 600L));
+        this.localDatabaseFiles = Collections.unmodifiableList(config.getStringList("local-database.files"));
+        this.remoteFallback = config.getBoolean("local-database.remote-fallback", true);
+        this.remoteCheckForChina = config.getBoolean("local-database.remote-check-for-china", false);
+        this.regionRangeFiles = Collections.unmodifiableList(config.getStringList("region-ranges.files"));
+        this.batchEnabled = config.getBoolean("ip-api-batch.enabled", true);
+        this.batchMaxSize = Math.max(1, Math.min(IpApiClient.MAX_BATCH_SIZE, config.getInt("ip-api-batch.max-size", 100)));
+        this.batchLingerMillis = Math.max(0L, config.getLong("ip-api-batch.linger-ms", 20L));
+        List<String> order = config.getStringList("providers.order");
+        this.providerOrder = Collections.unmodifiableList(config.get("providers.order") != null
+            ? order : Arrays.asList("ip-api", "ipwho.is", "region-ranges"));
+        this.hedgingEnabled = config.getBoolean("providers.hedging.enabled", true);
+        this.hedgingInitialDelayMillis = Math.max(0L, config.getLong("providers.hedging.initial-delay-ms", 1000L));
+        this.hedgingMinDelayMillis = Math.max(0L, config.getLong("providers.hedging.min-delay-ms", 100L));
+        this.breakerFailureThreshold = Math.max(1, config.getInt("providers.circuit-breaker.failure-threshold", 5));
+        this.breakerOpenSeconds = Math.max(1L, config.getLong("providers.circuit-breaker.open-seconds", 30L));
+        this.outagePolicy = OutagePolicy.fromConfig(config.getString("outage.policy", "deny"));
+        this.staleMaxAgeSeconds = Math.max(0L, config.getLong("outage.stale-max-age-seconds", 86400L));
+        this.recheckIntervalSeconds = Math.max(1L, config.getLong("outage.recheck-interval-seconds", 60L));
+        this.databaseReadConnections = Math.max(1, config.getInt("database.read-connections", 4));
+        this.databaseWriteBatchSize = Math.max(1, config.getInt("database.write-batch-size", 200));
+        this.databaseFlushIntervalMillis = Math.max(0L, config.getLong("database.write-flush-interval-ms", 500L));
+        this.prefixCacheEnabled = config.getBoolean("prefix-cache.enabled", true);
+        this.prefixCacheIpv4Length = Math.max(8, Math.min(32, config.getInt("prefix-cache.ipv4-prefix-length", 24)));
+        this.prefixCacheIpv6Length = Math.max(16, Math.min(128, config.getInt("prefix-cache.ipv6-prefix-length", 64)));
+        this.ipInfoRefreshAfterSeconds = Math.max(0L, config.getLong("ip-info-cache.refresh-after-hours", 168L)) * 3600L;
+        this.ipInfoExpireAfterSeconds = Math.max(0L, config.getLong("ip-info-cache.expire-after-hours", 0L)) * 3600L;
+        this.refreshIntervalSeconds = Math.max(1L, config.getLong("ip-info-cache.refresh-interval-seconds", 30L));
+        this.refreshMaxPerRound = Math.max(1, config.getInt("ip-info-cache.refresh-max-per-round", 50));
+        this.refreshMinRemainingRequests = Math.max(0, config.getInt("ip-info-cache.refresh-min-remaining-requests", 10));
+        this.admissionEnabled = config.getBoolean("admission.enabled", true);
+        this.admissionWindowSeconds = Math.max(1L, config.getLong("admission.window-seconds", 10L));
+        this.admissionMaxPerIp = Math.max(0, config.getInt("admission.max-per-ip", 10));
+        this.admissionMaxPerSubnet = Math.max(0, config.getInt("admission.max-per-subnet", 60));
+        this.admissionTableSize = Math.max(64, config.getInt("admission.table-size", 16384));
+        this.deniedFilterEnabled = config.getBoolean("denied-filter.enabled", true);
+        this.deniedFilterExpectedEntries = Math.max(1000, config.getInt("denied-filter.expected-entries", 100000));
+        this.deniedFilterFalsePositiveRate = Math.max(1e-9, Math.min(0.1, config.getDouble("denied-filter.false-positive-rate", 0.0001)));
+        this.earlyRejectEnabled = config.getBoolean("early-reject.enabled", false);
+        this.prometheusEnabled = config.getBoolean("metrics.prometheus.enabled", false);
+        this.prometheusHost = config.getString("metrics.prometheus.host", "127.0.0.1").trim();
+        this.prometheusPort = Math.max(1, Math.min(65535, config.getInt("metrics.prometheus.port", 9464)));
+    }
+
+    /**
+     * 从平台配置中读取引擎设置，缺失或无效的项使用默认值
+     */
+    public static EngineSettings load(ConfigSource config) {
+        return new EngineSettings(config);
+    }
+
+    /**
+     * 全部使用默认值的设置，用于配置文件无法读取时
+     */
+    public static EngineSettings defaults() {
+        return new EngineSettings(path -> null);
+    }
+
+    public Set<String> getDeniedRegions() { return deniedRegions; }
+    public boolean isEnableRegionRestriction() { return enableRegionRestriction; }
+    public String getDeniedMessage() { return deniedMessage; }
+    public ProxyKeywords getProxyKeywords() { return proxyKeywords; }
+    public long getLookupTimeoutMillis() { return lookupTimeoutMillis; }
+    public long getHttpConnectTimeoutMillis() { return httpConnectTimeoutMillis; }
+    public long getHttpReadTimeoutMillis() { return httpReadTimeoutMillis; }
+    public int getMaxConcurrentLookups() { return maxConcurrentLookups; }
+    public int getLookupQueueSize() { return lookupQueueSize; }
+    public boolean isPrefetchOnPing() { return prefetchOnPing; }
+    public long getPrefetchTtlSeconds() { return prefetchTtlSeconds; }
+    public long getFailedLookupRetainSeconds() { return failedLookupRetainSeconds; }
+    public int getVerdictCacheMaxEntries() { return verdictCacheMaxEntries; }
+    public long getVerdictCacheTtlSeconds() { return verdictCacheTtlSeconds; }
+    public List<String> getLocalDatabaseFiles() { return localDatabaseFiles; }
+    public boolean isRemoteFallback() { return remoteFallback; }
+    public boolean isRemoteCheckForChina() { return remoteCheckForChina; }
+    public List<String> getRegionRangeFiles() { return regionRangeFiles; }
+    public boolean isBatchEnabled() { return batchEnabled; }
+    public int getBatchMaxSize() { return batchMaxSize; }
+    public long getBatchLingerMillis() { return batchLingerMillis; }
+    public List<String> getProviderOrder() { return providerOrder; }
+    public boolean isHedgingEnabled() { return hedgingEnabled; }
+    public long getHedgingInitialDelayMillis() { return hedgingInitialDelayMillis; }
+    public long getHedgingMinDelayMillis() { return hedgingMinDelayMillis; }
+    public int getBreakerFailureThreshold() { return breakerFailureThreshold; }
+    public long getBreakerOpenSeconds() { return breakerOpenSeconds; }
+    public OutagePolicy getOutagePolicy() { return outagePolicy; }
+    public long getStaleMaxAgeSeconds() { return staleMaxAgeSeconds; }
+    public long getRecheckIntervalSeconds() { return recheckIntervalSeconds; }
+    public int getDatabaseReadConnections() { return databaseReadConnections; }
+    public int getDatabaseWriteBatchSize() { return databaseWriteBatchSize; }
+    public long getDatabaseFlushIntervalMillis() { return databaseFlushIntervalMillis; }
+    public boolean isPrefixCacheEnabled() { return prefixCacheEnabled; }
+    public int getPrefixCacheIpv4Length() { return prefixCacheIpv4Length; }
+    public int getPrefixCacheIpv6Length() { return prefixCacheIpv6Length; }
+    public long getIpInfoRefreshAfterSeconds() { return ipInfoRefreshAfterSeconds; }
+    public long getIpInfoExpireAfterSeconds() { return ipInfoExpireAfterSeconds; }
+    public long getRefreshIntervalSeconds() { return refreshIntervalSeconds; }
+    public int getRefreshMaxPerRound() { return refreshMaxPerRound; }
+    public int getRefreshMinRemainingRequests() { return refreshMinRemainingRequests; }
+    public boolean isAdmissionEnabled() { return admissionEnabled; }
+    public long getAdmissionWindowSeconds() { return admissionWindowSeconds; }
+    public int getAdmissionMaxPerIp() { return admissionMaxPerIp; }
+    public int getAdmissionMaxPerSubnet() { return admissionMaxPerSubnet; }
+    public int getAdmissionTableSize() { return admissionTableSize; }
+    public boolean isDeniedFilterEnabled() { return deniedFilterEnabled; }
+    public int getDeniedFilterExpectedEntries() { return deniedFilterExpectedEntries; }
+    public double getDeniedFilterFalsePositiveRate() { return deniedFilterFalsePositiveRate; }
+    public boolean isEarlyRejectEnabled() { return earlyRejectEnabled; }
+    public boolean isPrometheusEnabled() { return prometheusEnabled; }
+    public String getPrometheusHost() { return prometheusHost; }
+    public int getPrometheusPort() { return prometheusPort; }
+
+    /**
+     * 检查国家代码是否在拒绝列表中
+     */
+    public boolean isRegionDenied(String countryCode) {
+        if (countryCode == null) return false;
+        return deniedRegions.contains(countryCode.toUpperCase());
+    }
+}
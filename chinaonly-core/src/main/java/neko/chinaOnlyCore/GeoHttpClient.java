@@ -0,0 +1,110 @@
+package neko.chinaOnlyCore;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 所有在线数据源共享的HTTP客户端，复用保持连接的HTTP/1.1连接，避免每次查询都重新握手
+ */
+final class GeoHttpClient {
+    private final ThreadPoolExecutor executor;
+    private final HttpClient httpClient;
+    private volatile Duration readTimeout;
+
+    /**
+     * 连接超时和线程池大小在创建时确定，修改后需要重新创建客户端
+     */
+    GeoHttpClient(EngineSettings settings) {
+        // 同步的数据源在等待额度和响应期间一直占用线程，线程数和队列都有上限，
+        // 已满时直接拒绝，连接洪水不会无限制地创建线程和等待任务
+        AtomicInteger threadId = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+            settings.getMaxConcurrentLookups(), settings.getMaxConcurrentLookups(),
+            60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(settings.getLookupQueueSize()),
+            runnable -> {
+                Thread thread = new Thread(runnable, "ChinaOnly-Http-" + threadId.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        // HttpClient使用自己的线程处理响应，请求都是同步发送的，并发数受上面的线程池限制
+        this.httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofMillis(settings.getHttpConnectTimeoutMillis()))
+            .build();
+        applySettings(settings);
+    }
+
+    /**
+     * 重新加载配置后更新读取超时
+     */
+    void applySettings(EngineSettings settings) {
+        this.readTimeout = Duration.ofMillis(settings.getHttpReadTimeoutMillis());
+    }
+
+    /**
+     * 在线查询使用的有界线程池，同步的数据源通过它异步执行，已满时抛出 RejectedExecutionException
+     */
+    Executor executor() {
+        return executor;
+    }
+
+    HttpRequest.Builder newRequest(String address) {
+        return HttpRequest.newBuilder(URI.create(address)).timeout(readTimeout);
+    }
+
+    /**
+     * 发送请求并把响应交给 handler 流式解析，响应流总会被关闭以便连接回到连接池
+     */
+    <T> T send(HttpRequest request, ResponseHandler<T> handler) throws IOException {
+        HttpResponse<InputStream> response;
+        try {
+            response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("HTTP请求被中断: " + request.uri().getHost());
+        }
+
+        try (Reader reader = new InputStreamReader(response.body(), StandardCharsets.UTF_8)) {
+            return handler.handle(response, reader);
+        }
+    }
+
+    /**
+     * 状态码为200时把响应体解析为JSON，否则抛出异常
+     */
+    static JsonElement parseJson(HttpResponse<?> response, Reader body) throws IOException {
+        if (response.statusCode() != 200) {
+            throw new IOException(response.uri().getHost() + " 返回错误状态码: " + response.statusCode());
+        }
+        return JsonParser.parseReader(body);
+    }
+
+    void close() {
+        executor.shutdownNow();
+    }
+
+    interface ResponseHandler<T> {
+        T handle(HttpResponse<?> response, Reader body) throws IOException;
+    }
+}
@@ -0,0 +1,62 @@
+package neko.chinaOnlyCore;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * IP地理位置数据源
+ */
+public interface GeoProvider {
+
+    /**
+     * 数据源名称，用于配置和日志
+     */
+    String getName();
+
+    /**
+     * 查询IP的地理位置信息，数据源中没有该IP时返回 null，查询出错时抛出异常
+     */
+    IPInfo lookup(String ip, InetAddress address) throws IOException;
+
+    /**
+     * 异步查询，默认在 executor 上执行 {@link #lookup}
+     */
+    default CompletableFuture<IPInfo> lookupAsync(String ip, InetAddress address, Executor executor) {
+        CompletableFuture<IPInfo> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(lookup(ip, address));
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 是否为在线数据源；本地替补数据源的结果不会保存到数据库，也不参与对冲请求
+     */
+    default boolean isRemote() {
+        return true;
+    }
+
+    /**
+     * 数据源是否提供代理/VPN信息；不提供时查询结果只用于本次检测，不保存到数据库也不缓存，
+     * 也不作为对冲请求的目标，避免其结果抢先返回并放行代理
+     */
+    default boolean isProxyAuthoritative() {
+        return true;
+    }
+
+    /**
+     * 释放数据源占用的资源
+     */
+    default void close() {
+    }
+}
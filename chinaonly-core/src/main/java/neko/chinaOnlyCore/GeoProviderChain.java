@@ -0,0 +1,246 @@
+package neko.chinaOnlyCore;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * 按顺序组合多个在线数据源：前一个数据源失败时立即换下一个，
+ * 超过其p95延迟仍未返回时同时查询下一个数据源（对冲请求），先得到的结果为准
+ * <p>
+ * 每个数据源有独立的熔断器，持续失败的数据源会被直接跳过
+ */
+public class GeoProviderChain {
+    private final List<Slot> slots;
+    private final Executor executor;
+    private volatile EngineSettings settings;
+
+    GeoProviderChain(List<GeoProvider> providers, Executor executor, EngineSettings settings) {
+        List<Slot> list = new ArrayList<>(providers.size());
+        for (GeoProvider provider : providers) {
+            list.add(new Slot(provider, new CircuitBreaker(settings.getBreakerFailureThreshold(), settings.getBreakerOpenSeconds())));
+        }
+        this.slots = Collections.unmodifiableList(list);
+        this.executor = executor;
+        this.settings = settings;
+    }
+
+    /**
+     * 按配置的顺序创建数据源，未知或不可用的名称会被跳过
+     */
+    static GeoProviderChain create(EngineSettings settings, IpApiClient apiClient, IpApiBatcher apiBatcher,
+                                   GeoHttpClient http, RegionRangeTable regionRanges, Logger logger) {
+        List<GeoProvider> providers = new ArrayList<>();
+        for (String name : settings.getProviderOrder()) {
+            GeoProvider provider;
+            switch (name.trim().toLowerCase()) {
+                case "ip-api":
+                    provider = apiBatcher != null ? apiBatcher : apiClient;
+                    break;
+                case "ipwho.is":
+                    provider = new IpWhoIsClient(http);
+                    break;
+                case "region-ranges":
+                    if (regionRanges == null) {
+                        logger.info("未配置 region-ranges.files，已跳过数据源 region-ranges");
+                        continue;
+                    }
+                    provider = regionRanges;
+                    break;
+                default:
+                    logger.warning("未知的IP地理位置数据源: " + name);
+                    continue;
+            }
+            providers.add(provider);
+        }
+        if (apiBatcher != null && !providers.contains(apiBatcher)) {
+            apiBatcher.close();
+        }
+        if (providers.isEmpty()) {
+            logger.warning("没有配置可用的在线数据源，未命中本地数据的IP将无法通过检测");
+        }
+        return new GeoProviderChain(providers, http.executor(), settings);
+    }
+
+    void applySettings(EngineSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * 查询IP信息，结果中包含给出答案的数据源；数据源出错或全部熔断时以 {@link ProvidersUnavailableException} 结束
+     */
+    CompletableFuture<Answer> lookup(String ip, InetAddress address) {
+        CompletableFuture<Answer> result = new CompletableFuture<>();
+        new Attempt(ip, address, result).startNext();
+        return result;
+    }
+
+    /**
+     * 各数据源的名称和熔断状态
+     */
+    public List<String> describe() {
+        List<String> lines = new ArrayList<>(slots.size());
+        for (Slot slot : slots) {
+            long p95 = slot.latency.getP95Millis();
+            lines.add(slot.provider.getName() + ": " + slot.breaker.getState() + (p95 >= 0 ? ", p95 " + p95 + "ms" : ""));
+        }
+        return lines;
+    }
+
+    void close() {
+        for (Slot slot : slots) {
+            slot.provider.close();
+        }
+    }
+
+    /**
+     * 查询结果和给出结果的数据源
+     */
+    static final class Answer {
+        final IPInfo info;
+        final GeoProvider provider;
+
+        Answer(IPInfo info, GeoProvider provider) {
+            this.info = info;
+            this.provider = provider;
+        }
+    }
+
+    private static final class Slot {
+        final GeoProvider provider;
+        final CircuitBreaker breaker;
+        final LatencyTracker latency = new LatencyTracker();
+
+        Slot(GeoProvider provider, CircuitBreaker breaker) {
+            this.provider = provider;
+            this.breaker = breaker;
+        }
+    }
+
+    /**
+     * 一次查询的状态，所有方法都在自身的锁内修改状态
+     */
+    private final class Attempt {
+        private final String ip;
+        private final InetAddress address;
+        private final CompletableFuture<Answer> result;
+        private int next;
+        private int running;
+        private Throwable lastError;
+        private boolean attempted;
+        // 有数据源因本地队列已满没有发出请求
+        private boolean overloaded;
+
+        Attempt(String ip, InetAddress address, CompletableFuture<Answer> result) {
+            this.ip = ip;
+            this.address = address;
+            this.result = result;
+        }
+
+        /**
+         * 启动下一个可用的数据源，没有可用数据源且没有进行中的请求时结束查询
+         */
+        synchronized void startNext() {
+            while (next < slots.size() && !result.isDone()) {
+                Slot slot = slots.get(next);
+                // 本地替补只在前面的在线数据源都失败后使用
+                if (!slot.provider.isRemote() && running > 0) {
+                    return;
+                }
+                next++;
+                if (!slot.breaker.allowRequest()) {
+                    continue;
+                }
+                running++;
+                attempted = true;
+                // 先安排对冲，数据源同步失败时会立即换下一个，对冲任务随之失效
+                scheduleHedge(slot);
+                long startNanos = System.nanoTime();
+                slot.provider.lookupAsync(ip, address, executor)
+                    .whenComplete((info, throwable) -> onComplete(slot, startNanos, info, throwable));
+                return;
+            }
+            if (running == 0 && !result.isDone()) {
+                result.completeExceptionally(failure());
+            }
+        }
+
+        /**
+         * 所有数据源都明确没有该IP的信息时为普通异常，本地队列已满时为 RejectedExecutionException，
+         * 否则说明在线数据源暂时不可用
+         */
+        private Exception failure() {
+            if (overloaded) {
+                return new RejectedExecutionException("在线查询队列已满");
+            }
+            if (!attempted) {
+                return new ProvidersUnavailableException("没有可用的在线数据源（均已熔断或未配置）");
+            }
+            if (lastError instanceof ProvidersUnavailableException) {
+                return (ProvidersUnavailableException) lastError;
+            }
+            if (lastError != null) {
+                return new ProvidersUnavailableException("在线数据源不可用: " + (lastError.getMessage() != null ? lastError.getMessage() : lastError.getClass().getSimpleName()), lastError);
+            }
+            return new IOException("没有数据源返回该IP的信息");
+        }
+
+        private void scheduleHedge(Slot slot) {
+            EngineSettings current = settings;
+            if (!current.isHedgingEnabled() || next >= slots.size()
+                || !slots.get(next).provider.isRemote() || !slots.get(next).provider.isProxyAuthoritative()) {
+                return;
+            }
+            long p95 = slot.latency.getP95Millis();
+            long delay = Math.max(current.getHedgingMinDelayMillis(), p95 >= 0 ? p95 : current.getHedgingInitialDelayMillis());
+            int expectedNext = next;
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> hedge(expectedNext));
+        }
+
+        private synchronized void hedge(int expectedNext) {
+            // 期间已经换过数据源（前一个失败）时不再重复启动
+            if (next == expectedNext && !result.isDone()) {
+                startNext();
+            }
+        }
+
+        private void onComplete(Slot slot, long startNanos, IPInfo info, Throwable throwable) {
+            Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause() : throwable;
+            if (cause == null) {
+                slot.breaker.recordSuccess();
+                slot.latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            } else if (cause instanceof RateLimitedException || cause instanceof RejectedExecutionException) {
+                // 额度不足或本地队列已满时请求没有发出，不代表数据源故障
+                slot.breaker.recordIgnored();
+            } else {
+                slot.breaker.recordFailure();
+            }
+
+            synchronized (this) {
+                running--;
+                if (result.isDone()) {
+                    return;
+                }
+                if (info != null) {
+                    result.complete(new Answer(info, slot.provider));
+                    return;
+                }
+                if (cause instanceof RejectedExecutionException) {
+                    overloaded = true;
+                } else if (cause != null) {
+                    lastError = cause;
+                }
+                startNext();
+            }
+        }
+    }
+}
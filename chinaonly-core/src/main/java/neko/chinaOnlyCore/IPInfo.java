@@ -1,4 +1,4 @@
-package neko.chinaOnly;
+package neko.chinaOnlyCore;
 
 import java.sql.Timestamp;
 
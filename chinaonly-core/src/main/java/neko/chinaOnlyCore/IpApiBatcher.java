@@ -0,0 +1,195 @@
+package neko.chinaOnlyCore;
+
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * 将短时间内到达的多个ip-api查询合并为一次 /batch 请求
+ * <p>
+ * 第一个查询到达后等待 linger 时间收集更多IP，达到最大批量时立即发送；
+ * 请求在单个线程上依次发送，发送期间到达的查询会自动合并到下一批；
+ * 等待的查询数量有上限，已满时新的查询以 RejectedExecutionException 结束
+ */
+final class IpApiBatcher implements GeoProvider {
+    private final IpApiClient client;
+    private final Logger logger;
+    private final int maxBatchSize;
+    private final long lingerMillis;
+    private final int maxPending;
+    private final ScheduledExecutorService scheduler;
+
+    private final Object lock = new Object();
+    private List<Pending> pending = new ArrayList<>();
+    // 已安排发送任务时为 true，发送线程处理完所有等待的查询后才会重置
+    private boolean flushScheduled;
+
+    IpApiBatcher(IpApiClient client, Logger logger, int maxBatchSize, long lingerMillis, int maxPending) {
+        this.client = client;
+        this.logger = logger;
+        this.maxBatchSize = Math.max(1, Math.min(maxBatchSize, IpApiClient.MAX_BATCH_SIZE));
+        this.lingerMillis = Math.max(0L, lingerMillis);
+        this.maxPending = Math.max(this.maxBatchSize, maxPending);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ChinaOnly-Batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public String getName() {
+        return client.getName();
+    }
+
+    @Override
+    public IPInfo lookup(String ip, InetAddress address) throws IOException {
+        try {
+            return submit(ip).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待批量查询时被中断");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * 批量查询本身就是异步的，不需要占用线程等待
+     */
+    @Override
+    public CompletableFuture<IPInfo> lookupAsync(String ip, InetAddress address, Executor executor) {
+        return submit(ip);
+    }
+
+    /**
+     * 加入等待队列，返回的结果在所属批次的请求完成后结束
+     */
+    CompletableFuture<IPInfo> submit(String ip) {
+        CompletableFuture<IPInfo> future = new CompletableFuture<>();
+        boolean flushNow;
+        boolean scheduleFlush = false;
+        synchronized (lock) {
+            if (pending.size() >= maxPending) {
+                future.completeExceptionally(new RejectedExecutionException("批量查询队列已满"));
+                return future;
+            }
+            pending.add(new Pending(ip, future));
+            flushNow = pending.size() >= maxBatchSize;
+            if (!flushScheduled) {
+                flushScheduled = true;
+                scheduleFlush = true;
+            }
+        }
+        try {
+            if (flushNow) {
+                scheduler.execute(this::flush);
+            } else if (scheduleFlush) {
+                scheduler.schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void flush() {
+        while (true) {
+            List<Pending> batch;
+            synchronized (lock) {
+                if (pending.isEmpty()) {
+                    flushScheduled = false;
+                    return;
+                }
+                if (pending.size() <= maxBatchSize) {
+                    batch = pending;
+                    pending = new ArrayList<>();
+                } else {
+                    List<Pending> head = pending.subList(0, maxBatchSize);
+                    batch = new ArrayList<>(head);
+                    head.clear();
+                }
+            }
+            send(batch);
+        }
+    }
+
+    private void send(List<Pending> batch) {
+        // 只有一个IP时使用单独的查询接口，它的限速额度比批量接口更宽松
+        if (batch.size() == 1) {
+            Pending single = batch.get(0);
+            try {
+                single.future.complete(client.lookup(single.ip, null));
+            } catch (IOException | RuntimeException e) {
+                single.future.completeExceptionally(e);
+            }
+            return;
+        }
+
+        List<String> ips = new ArrayList<>(batch.size());
+        for (Pending entry : batch) {
+            ips.add(entry.ip);
+        }
+        List<JsonObject> results;
+        try {
+            results = client.lookupBatch(ips);
+        } catch (IOException | RuntimeException e) {
+            for (Pending entry : batch) {
+                entry.future.completeExceptionally(e);
+            }
+            return;
+        }
+        logger.fine("IP地理位置API批量查询完成: " + batch.size() + " 个IP");
+
+        for (int i = 0; i < batch.size(); i++) {
+            Pending entry = batch.get(i);
+            try {
+                entry.future.complete(IpApiClient.parse(entry.ip, results.get(i)));
+            } catch (RuntimeException e) {
+                entry.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 停止发送线程，尚未发送的查询以异常结束
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        List<Pending> remaining;
+        synchronized (lock) {
+            remaining = pending;
+            pending = new ArrayList<>();
+        }
+        for (Pending entry : remaining) {
+            entry.future.completeExceptionally(new IOException("IP检测已停止"));
+        }
+    }
+
+    private static final class Pending {
+        final String ip;
+        final CompletableFuture<IPInfo> future;
+
+        Pending(String ip, CompletableFuture<IPInfo> future) {
+            this.ip = ip;
+            this.future = future;
+        }
+    }
+}
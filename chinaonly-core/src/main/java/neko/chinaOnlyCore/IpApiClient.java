@@ -0,0 +1,162 @@
+package neko.chinaOnlyCore;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 使用ip-api.com作为权威的免费IP地理位置服务
+ */
+public class IpApiClient implements GeoProvider {
+    // proxy 字段不在默认返回字段中，需要显式请求
+    private static final String FIELDS = "status,message,query,countryCode,country,regionName,city,isp,org,proxy";
+    private static final String API_URL = "http://ip-api.com/json/%s?lang=zh-CN&fields=" + FIELDS;
+    // 批量接口每次最多100个IP，单独限速为每分钟15次请求
+    private static final String BATCH_URL = "http://ip-api.com/batch?lang=zh-CN&fields=" + FIELDS;
+    public static final int MAX_BATCH_SIZE = 100;
+
+    // 免费版限速：单个查询每分钟45次，批量查询每分钟15次，超出后返回429
+    private final RequestQuota singleQuota = new RequestQuota(45, 60);
+    private final RequestQuota batchQuota = new RequestQuota(15, 60);
+    private final GeoHttpClient http;
+    // 额度不足时最多等待的时间，超过检测超时时间的等待没有意义
+    private volatile long maxQuotaWaitMillis;
+
+    IpApiClient(GeoHttpClient http, EngineSettings settings) {
+        this.http = http;
+        applySettings(settings);
+    }
+
+    /**
+     * 重新加载配置后更新额度等待时间
+     */
+    void applySettings(EngineSettings settings) {
+        this.maxQuotaWaitMillis = settings.getLookupTimeoutMillis();
+    }
+
+    /**
+     * 单个查询接口当前可用的请求次数
+     */
+    public int getRemainingRequests() {
+        return singleQuota.getRemaining();
+    }
+
+    /**
+     * 批量查询接口当前可用的请求次数
+     */
+    public int getRemainingBatchRequests() {
+        return batchQuota.getRemaining();
+    }
+
+    @Override
+    public String getName() {
+        return "ip-api";
+    }
+
+    /**
+     * 查询IP的地理位置信息，请求出错时抛出异常
+     */
+    @Override
+    public IPInfo lookup(String ip, InetAddress address) throws IOException {
+        singleQuota.acquire(maxQuotaWaitMillis);
+        HttpRequest request = http.newRequest(String.format(API_URL, ip)).GET().build();
+        JsonObject jsonResponse = http.send(request, (response, reader) -> readJson(response, reader, singleQuota)).getAsJsonObject();
+        return parse(ip, jsonResponse);
+    }
+
+    /**
+     * 通过批量接口一次查询多个IP，返回的结果与传入的IP顺序一致，每个结果需再用 {@link #parse} 转换
+     */
+    List<JsonObject> lookupBatch(List<String> ips) throws IOException {
+        if (ips.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("批量查询最多 " + MAX_BATCH_SIZE + " 个IP");
+        }
+        JsonArray body = new JsonArray();
+        for (String ip : ips) {
+            body.add(ip);
+        }
+
+        batchQuota.acquire(maxQuotaWaitMillis);
+        HttpRequest request = http.newRequest(BATCH_URL)
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(body.toString(), StandardCharsets.UTF_8))
+            .build();
+        JsonArray jsonResponse = http.send(request, (response, reader) -> readJson(response, reader, batchQuota)).getAsJsonArray();
+        if (jsonResponse.size() != ips.size()) {
+            throw new IOException("IP地理位置API批量查询返回了 " + jsonResponse.size() + " 条结果，期望 " + ips.size() + " 条");
+        }
+        List<JsonObject> results = new ArrayList<>(jsonResponse.size());
+        for (JsonElement element : jsonResponse) {
+            results.add(element.getAsJsonObject());
+        }
+        return results;
+    }
+
+    /**
+     * 根据响应头更新请求额度，再解析响应
+     */
+    private static JsonElement readJson(HttpResponse<?> response, Reader body, RequestQuota quota) throws IOException {
+        // X-Rl: 当前窗口剩余请求次数，X-Ttl: 距离窗口重置的秒数
+        long ttl = parseHeader(response, "X-Ttl");
+        if (response.statusCode() == 429) {
+            quota.exhausted(ttl);
+            throw new RateLimitedException("IP地理位置API请求过于频繁 (HTTP 429)");
+        }
+        long remaining = parseHeader(response, "X-Rl");
+        if (remaining >= 0 && ttl >= 0) {
+            quota.update((int) remaining, ttl);
+        }
+        return GeoHttpClient.parseJson(response, body);
+    }
+
+    private static long parseHeader(HttpResponse<?> response, String name) {
+        String value = response.headers().firstValue(name).orElse(null);
+        if (value == null) {
+            return -1L;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * 将API响应转换为IPInfo，API没有该IP的信息（如保留地址）时返回 null
+     */
+    static IPInfo parse(String ip, JsonObject jsonResponse) {
+        // 检查API响应状态
+        String status = getString(jsonResponse, "status");
+        if (!"success".equals(status)) {
+            return null;
+        }
+
+        String countryCode = getString(jsonResponse, "countryCode");
+        boolean proxy = jsonResponse.has("proxy") && jsonResponse.get("proxy").getAsBoolean();
+        return new IPInfo(
+            ip,
+            countryCode,
+            getString(jsonResponse, "country"),
+            getString(jsonResponse, "regionName"),
+            getString(jsonResponse, "city"),
+            getString(jsonResponse, "isp"),
+            getString(jsonResponse, "org"),
+            proxy,
+            ChinaRegions.contains(countryCode),
+            null
+        );
+    }
+
+    private static String getString(JsonObject json, String key) {
+        return json.has(key) && !json.get(key).isJsonNull() ? json.get(key).getAsString() : "";
+    }
+}
@@ -0,0 +1,308 @@
+package neko.chinaOnlyCore;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * IP地址的紧凑二进制表示，IPv4地址以IPv4映射的IPv6形式 (::ffff:a.b.c.d) 存放
+ * <p>
+ * 内嵌IPv4地址的IPv6形式（IPv4映射、IPv4兼容、6to4、Teredo）会转换为对应的IPv4地址，
+ * 同一个客户端无论以哪种形式连接都得到相同的键；解析和转换只使用基本类型，不经过字符串和正则表达式
+ */
+public final class IpKey {
+    private static final long IPV4_MAPPED_HIGH = 0L;
+    private static final long IPV4_MAPPED_LOW_PREFIX = 0x0000FFFF00000000L;
+    // 6to4: 2002:AABB:CCDD::/48，第17-48位为IPv4地址
+    private static final long SIX_TO_FOUR_PREFIX = 0x2002L;
+    // Teredo: 2001:0000::/32，最后32位为按位取反的客户端IPv4地址
+    private static final long TEREDO_PREFIX = 0x20010000L;
+    private static final int IPV4_LOOPBACK = 0x7F000001;
+
+    private final long high;
+    private final long low;
+
+    private IpKey(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    public static IpKey of(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        if (bytes.length == 4) {
+            return ofIPv4(readInt(bytes, 0));
+        }
+        return ofIPv6(readLong(bytes, 0), readLong(bytes, 8));
+    }
+
+    public static IpKey ofIPv4(int ipv4) {
+        return new IpKey(IPV4_MAPPED_HIGH, IPV4_MAPPED_LOW_PREFIX | (ipv4 & 0xFFFFFFFFL));
+    }
+
+    /**
+     * 由IPv6地址的高低64位创建，内嵌IPv4地址的形式转换为对应的IPv4地址
+     */
+    public static IpKey ofIPv6(long high, long low) {
+        if (high == 0L) {
+            long upper = low >>> 32;
+            int ipv4 = (int) low;
+            // IPv4映射地址 ::ffff:a.b.c.d
+            if (upper == 0xFFFFL) {
+                return ofIPv4(ipv4);
+            }
+            if (upper == 0L) {
+                // ::1 与 127.0.0.1 同样视为本机地址
+                if (ipv4 == 1) {
+                    return ofIPv4(IPV4_LOOPBACK);
+                }
+                // IPv4兼容地址 ::a.b.c.d（:: 本身除外）
+                if (ipv4 != 0) {
+                    return ofIPv4(ipv4);
+                }
+            }
+        }
+        if ((high >>> 48) == SIX_TO_FOUR_PREFIX) {
+            return ofIPv4((int) (high >>> 16));
+        }
+        if ((high >>> 32) == TEREDO_PREFIX) {
+            return ofIPv4(~(int) low);
+        }
+        return new IpKey(high, low);
+    }
+
+    /**
+     * 解析IP地址字面量（点分十进制IPv4或IPv6，可带 %zone），不是合法地址时返回 null；不会进行DNS查询
+     */
+    public static IpKey parse(CharSequence text) {
+        if (text == null) {
+            return null;
+        }
+        int end = text.length();
+        for (int i = 0; i < end; i++) {
+            if (text.charAt(i) == '%') {
+                end = i;
+                break;
+            }
+        }
+        if (end == 0) {
+            return null;
+        }
+        for (int i = 0; i < end; i++) {
+            if (text.charAt(i) == ':') {
+                return parseIPv6(text, end);
+            }
+        }
+        long ipv4 = parseIPv4(text, 0, end);
+        return ipv4 >= 0 ? ofIPv4((int) ipv4) : null;
+    }
+
+    /**
+     * 解析 [start, end) 范围内的点分十进制IPv4地址，不合法时返回 -1
+     */
+    static long parseIPv4(CharSequence text, int start, int end) {
+        long result = 0;
+        int parts = 0;
+        int i = start;
+        while (parts < 4) {
+            int value = 0;
+            int digits = 0;
+            while (i < end && digits < 4) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+                digits++;
+                i++;
+            }
+            if (digits == 0 || digits > 3 || value > 255) {
+                return -1;
+            }
+            result = (result << 8) | value;
+            parts++;
+            if (parts < 4) {
+                if (i >= end || text.charAt(i) != '.') {
+                    return -1;
+                }
+                i++;
+            }
+        }
+        return i == end ? result : -1;
+    }
+
+    private static IpKey parseIPv6(CharSequence text, int end) {
+        // 每组16位，最多8组；内嵌的IPv4地址占最后两组。"::" 之前的组直接写入所在的位置，
+        // 之后的组右对齐累积在 tailHigh/tailLow 中，结束时正好位于最后几组，解析过程不创建对象
+        long high = 0;
+        long low = 0;
+        long tailHigh = 0;
+        long tailLow = 0;
+        int count = 0;
+        int compressAt = -1;
+        int i = 0;
+        if (end >= 2 && text.charAt(0) == ':' && text.charAt(1) == ':') {
+            compressAt = 0;
+            i = 2;
+        } else if (text.charAt(0) == ':') {
+            return null;
+        }
+        while (i < end) {
+            if (count == 8) {
+                return null;
+            }
+            int groupStart = i;
+            int value = 0;
+            while (i < end && i - groupStart < 4) {
+                int digit = Character.digit(text.charAt(i), 16);
+                if (digit < 0) {
+                    break;
+                }
+                value = (value << 4) | digit;
+                i++;
+            }
+            if (i < end && text.charAt(i) == '.') {
+                // 以点分十进制结尾的内嵌IPv4地址
+                if (count > 6) {
+                    return null;
+                }
+                long ipv4 = parseIPv4(text, groupStart, end);
+                if (ipv4 < 0) {
+                    return null;
+                }
+                if (compressAt < 0) {
+                    low |= ipv4;
+                } else {
+                    tailHigh = (tailHigh << 32) | (tailLow >>> 32);
+                    tailLow = (tailLow << 32) | ipv4;
+                }
+                count += 2;
+                i = end;
+                break;
+            }
+            if (i == groupStart) {
+                return null;
+            }
+            if (compressAt >= 0) {
+                tailHigh = (tailHigh << 16) | (tailLow >>> 48);
+                tailLow = (tailLow << 16) | value;
+            } else if (count < 4) {
+                high |= (long) value << (16 * (3 - count));
+            } else {
+                low |= (long) value << (16 * (7 - count));
+            }
+            count++;
+            if (i == end) {
+                break;
+            }
+            if (text.charAt(i) != ':') {
+                return null;
+            }
+            i++;
+            if (i < end && text.charAt(i) == ':') {
+                if (compressAt >= 0) {
+                    return null;
+                }
+                compressAt = count;
+                i++;
+            } else if (i == end) {
+                return null;
+            }
+        }
+        if (compressAt < 0 ? count != 8 : count > 7) {
+            return null;
+        }
+        return ofIPv6(high | tailHigh, low | tailLow);
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        return ((long) readInt(bytes, offset) << 32) | (readInt(bytes, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+            | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+
+    /**
+     * 16字节的网络字节序表示，用作数据库中的主键
+     */
+    public byte[] toBytes() {
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (high >>> (56 - 8 * i));
+            bytes[8 + i] = (byte) (low >>> (56 - 8 * i));
+        }
+        return bytes;
+    }
+
+    /**
+     * 转换为 InetAddress，IPv4地址返回 Inet4Address
+     */
+    public InetAddress toInetAddress() {
+        try {
+            if (isIPv4()) {
+                int ipv4 = getIPv4();
+                return InetAddress.getByAddress(new byte[] {
+                    (byte) (ipv4 >>> 24), (byte) (ipv4 >>> 16), (byte) (ipv4 >>> 8), (byte) ipv4
+                });
+            }
+            return InetAddress.getByAddress(toBytes());
+        } catch (UnknownHostException e) {
+            // 长度固定为4或16字节，不会发生
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public long getHigh() { return high; }
+    public long getLow() { return low; }
+
+    /**
+     * 是否为IPv4地址（以IPv4映射形式存放）
+     */
+    public boolean isIPv4() {
+        return high == IPV4_MAPPED_HIGH && (low & 0xFFFFFFFF00000000L) == IPV4_MAPPED_LOW_PREFIX;
+    }
+
+    /**
+     * IPv4地址的32位整数形式，仅在 {@link #isIPv4()} 为 true 时有意义
+     */
+    public int getIPv4() {
+        return (int) low;
+    }
+
+    /**
+     * 标准文本形式：IPv4为点分十进制，IPv6与 {@link InetAddress#getHostAddress()} 相同（不压缩零组）
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(39);
+        if (isIPv4()) {
+            int ipv4 = getIPv4();
+            return builder.append((ipv4 >>> 24) & 0xFF).append('.').append((ipv4 >>> 16) & 0xFF).append('.')
+                .append((ipv4 >>> 8) & 0xFF).append('.').append(ipv4 & 0xFF).toString();
+        }
+        for (int g = 0; g < 8; g++) {
+            long half = g < 4 ? high : low;
+            int value = (int) (half >>> (48 - 16 * (g & 3))) & 0xFFFF;
+            if (g > 0) {
+                builder.append(':');
+            }
+            builder.append(Integer.toHexString(value));
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof IpKey)) return false;
+        IpKey other = (IpKey) o;
+        return high == other.high && low == other.low;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = high * 0x9E3779B97F4A7C15L ^ low;
+        h *= 0xBF58476D1CE4E5B9L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,66 @@
+package neko.chinaOnlyCore;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.http.HttpRequest;
+
+/**
+ * 使用ipwho.is作为备用的免费IP地理位置服务，不需要API Key
+ * <p>
+ * 免费版不提供代理检测，只能依靠ISP/ORG关键词识别代理
+ */
+public class IpWhoIsClient implements GeoProvider {
+    private static final String API_URL = "https://ipwho.is/%s?lang=zh-CN&fields=success,message,country,country_code,region,city,connection";
+
+    private final GeoHttpClient http;
+
+    IpWhoIsClient(GeoHttpClient http) {
+        this.http = http;
+    }
+
+    @Override
+    public String getName() {
+        return "ipwho.is";
+    }
+
+    @Override
+    public boolean isProxyAuthoritative() {
+        return false;
+    }
+
+    /**
+     * 查询IP的地理位置信息，没有该IP的信息（如保留地址）时返回 null
+     */
+    @Override
+    public IPInfo lookup(String ip, InetAddress address) throws IOException {
+        HttpRequest request = http.newRequest(String.format(API_URL, ip)).GET().build();
+        JsonObject json = http.send(request, GeoHttpClient::parseJson).getAsJsonObject();
+        if (!json.has("success") || !json.get("success").getAsBoolean()) {
+            return null;
+        }
+
+        String countryCode = getString(json, "country_code");
+        JsonObject connection = json.has("connection") && json.get("connection").isJsonObject()
+            ? json.getAsJsonObject("connection") : new JsonObject();
+        return new IPInfo(
+            ip,
+            countryCode,
+            getString(json, "country"),
+            getString(json, "region"),
+            getString(json, "city"),
+            getString(connection, "isp"),
+            getString(connection, "org"),
+            false,
+            ChinaRegions.contains(countryCode),
+            null
+        );
+    }
+
+    private static String getString(JsonObject json, String key) {
+        JsonElement element = json.get(key);
+        return element != null && !element.isJsonNull() ? element.getAsString() : "";
+    }
+}
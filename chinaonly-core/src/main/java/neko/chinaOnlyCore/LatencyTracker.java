@@ -0,0 +1,41 @@
+package neko.chinaOnlyCore;
+
+import java.util.Arrays;
+
+/**
+ * 记录最近若干次请求的耗时，用于估算p95延迟
+ */
+final class LatencyTracker {
+    private static final int SAMPLES = 128;
+    // 样本太少时p95没有意义
+    private static final int MIN_SAMPLES = 20;
+    // 每记录这么多次重新计算一次p95，避免每次都排序
+    private static final int RECOMPUTE_INTERVAL = 16;
+
+    private final long[] samples = new long[SAMPLES];
+    private int count;
+    private int next;
+    private int sinceRecompute;
+    private long p95Millis = -1L;
+
+    synchronized void record(long millis) {
+        samples[next] = millis;
+        next = (next + 1) % SAMPLES;
+        if (count < SAMPLES) {
+            count++;
+        }
+        if (count >= MIN_SAMPLES && (p95Millis < 0 || ++sinceRecompute >= RECOMPUTE_INTERVAL)) {
+            sinceRecompute = 0;
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            p95Millis = sorted[(int) Math.ceil(count * 0.95) - 1];
+        }
+    }
+
+    /**
+     * 最近请求的p95耗时（毫秒），样本不足时返回 -1
+     */
+    synchronized long getP95Millis() {
+        return p95Millis;
+    }
+}
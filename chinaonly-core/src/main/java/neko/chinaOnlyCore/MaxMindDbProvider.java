@@ -0,0 +1,213 @@
+package neko.chinaOnlyCore;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * 基于本地MaxMind DB (MMDB) 文件的离线数据源，可同时加载多个文件（例如国家库 + ASN库）
+ * <p>
+ * 支持 GeoLite2/GeoIP2 系列以及字段兼容的第三方MMDB文件
+ */
+public class MaxMindDbProvider implements GeoProvider {
+    private static final String[] PROXY_FLAGS = {
+        "is_anonymous", "is_anonymous_proxy", "is_anonymous_vpn", "is_public_proxy",
+        "is_residential_proxy", "is_tor_exit_node", "is_hosting_provider"
+    };
+    // 许多IP共享同一条记录，缓存解码结果以避免重复解析
+    private static final int MAX_CACHED_RECORDS = 65536;
+
+    private final List<MaxMindDbReader> readers;
+    private final List<Map<Integer, Record>> recordCaches;
+
+    private MaxMindDbProvider(List<MaxMindDbReader> readers) {
+        this.readers = readers;
+        List<Map<Integer, Record>> caches = new ArrayList<>(readers.size());
+        for (int i = 0; i < readers.size(); i++) {
+            caches.add(new ConcurrentHashMap<>());
+        }
+        this.recordCaches = caches;
+    }
+
+    /**
+     * 打开配置中的数据库文件，相对路径基于插件数据目录；没有可用文件时返回 null
+     */
+    public static MaxMindDbProvider open(Path dataDirectory, List<String> files, Logger logger) {
+        List<MaxMindDbReader> readers = new ArrayList<>();
+        for (String name : files) {
+            if (name == null || name.trim().isEmpty()) {
+                continue;
+            }
+            Path file = dataDirectory.resolve(name.trim());
+            if (!Files.isRegularFile(file)) {
+                logger.warning("找不到本地IP数据库文件: " + file);
+                continue;
+            }
+            try {
+                MaxMindDbReader reader = new MaxMindDbReader(file);
+                readers.add(reader);
+                logger.info("已加载本地IP数据库: " + file.getFileName() + " (" + reader.getDatabaseType() + ")");
+            } catch (IOException e) {
+                logger.severe("无法加载本地IP数据库 " + file + ": " + e.getMessage());
+            }
+        }
+        return readers.isEmpty() ? null : new MaxMindDbProvider(Collections.unmodifiableList(readers));
+    }
+
+    @Override
+    public String getName() {
+        return "local-mmdb";
+    }
+
+    @Override
+    public boolean isRemote() {
+        return false;
+    }
+
+    @Override
+    public IPInfo lookup(String ip, InetAddress address) throws IOException {
+        byte[] bytes = address.getAddress();
+        String countryCode = "";
+        String country = "";
+        String region = "";
+        String city = "";
+        String isp = "";
+        String org = "";
+        boolean proxy = false;
+
+        // 多个文件的结果合并，每个字段取第一个非空值
+        for (int i = 0; i < readers.size(); i++) {
+            MaxMindDbReader reader = readers.get(i);
+            int offset = reader.findRecordOffset(bytes);
+            if (offset < 0) {
+                continue;
+            }
+            Record record = readRecord(reader, recordCaches.get(i), offset);
+            if (countryCode.isEmpty()) countryCode = record.countryCode;
+            if (country.isEmpty()) country = record.country;
+            if (region.isEmpty()) region = record.region;
+            if (city.isEmpty()) city = record.city;
+            if (isp.isEmpty()) isp = record.isp;
+            if (org.isEmpty()) org = record.org;
+            proxy |= record.proxy;
+        }
+
+        // 没有国家信息时无法判断，交给其他数据源
+        if (countryCode.isEmpty()) {
+            return null;
+        }
+        return new IPInfo(ip, countryCode, country, region, city, isp, org, proxy,
+            ChinaRegions.contains(countryCode), null);
+    }
+
+    private static Record readRecord(MaxMindDbReader reader, Map<Integer, Record> cache, int offset) throws IOException {
+        Record record = cache.get(offset);
+        if (record != null) {
+            return record;
+        }
+        Object data = reader.readRecord(offset);
+        record = data instanceof Map ? Record.from((Map<?, ?>) data) : Record.EMPTY;
+        if (cache.size() >= MAX_CACHED_RECORDS) {
+            cache.clear();
+        }
+        cache.put(offset, record);
+        return record;
+    }
+
+    private static final class Record {
+        static final Record EMPTY = new Record("", "", "", "", "", "", false);
+
+        final String countryCode;
+        final String country;
+        final String region;
+        final String city;
+        final String isp;
+        final String org;
+        final boolean proxy;
+
+        Record(String countryCode, String country, String region, String city, String isp, String org, boolean proxy) {
+            this.countryCode = countryCode;
+            this.country = country;
+            this.region = region;
+            this.city = city;
+            this.isp = isp;
+            this.org = org;
+            this.proxy = proxy;
+        }
+
+        static Record from(Map<?, ?> data) {
+            String countryCode = firstNonEmpty(
+                path(data, "country", "iso_code"),
+                path(data, "registered_country", "iso_code"),
+                path(data, "country_code"));
+            String country = firstNonEmpty(
+                localizedName(map(data.get("country"))),
+                path(data, "country_name"),
+                path(data, "country"));
+            String region = "";
+            Object subdivisions = data.get("subdivisions");
+            if (subdivisions instanceof List && !((List<?>) subdivisions).isEmpty()) {
+                region = localizedName(map(((List<?>) subdivisions).get(0)));
+            }
+            String city = firstNonEmpty(localizedName(map(data.get("city"))), path(data, "city"));
+            String isp = firstNonEmpty(
+                path(data, "isp"),
+                path(data, "autonomous_system_organization"),
+                path(data, "as_name"));
+            String org = firstNonEmpty(path(data, "organization"), path(data, "org"));
+
+            boolean proxy = false;
+            Map<?, ?> traits = map(data.get("traits"));
+            for (String flag : PROXY_FLAGS) {
+                proxy |= Boolean.TRUE.equals(data.get(flag)) || (traits != null && Boolean.TRUE.equals(traits.get(flag)));
+            }
+            return new Record(countryCode.toUpperCase(), country, region, city, isp, org, proxy);
+        }
+
+        private static Map<?, ?> map(Object value) {
+            return value instanceof Map ? (Map<?, ?>) value : null;
+        }
+
+        private static String path(Map<?, ?> data, String... keys) {
+            Object value = data;
+            for (String key : keys) {
+                if (!(value instanceof Map)) {
+                    return "";
+                }
+                value = ((Map<?, ?>) value).get(key);
+            }
+            return value instanceof String ? (String) value : "";
+        }
+
+        private static String localizedName(Map<?, ?> entity) {
+            if (entity == null) {
+                return "";
+            }
+            Map<?, ?> names = map(entity.get("names"));
+            if (names == null) {
+                return "";
+            }
+            Object name = names.get("zh-CN");
+            if (!(name instanceof String)) {
+                name = names.get("en");
+            }
+            return name instanceof String ? (String) name : "";
+        }
+
+        private static String firstNonEmpty(String... values) {
+            for (String value : values) {
+                if (value != null && !value.isEmpty()) {
+                    return value;
+                }
+            }
+            return "";
+        }
+    }
+}
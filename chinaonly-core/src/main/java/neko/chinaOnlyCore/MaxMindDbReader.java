@@ -0,0 +1,275 @@
+package neko.chinaOnlyCore;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MaxMind DB (MMDB) 格式文件的只读解析器，文件通过内存映射读取，查询过程不产生任何I/O
+ * <p>
+ * 只使用 ByteBuffer 的绝对位置读取，可被多个线程同时使用
+ */
+final class MaxMindDbReader {
+    private static final byte[] METADATA_MARKER = {
+        (byte) 0xAB, (byte) 0xCD, (byte) 0xEF, 'M', 'a', 'x', 'M', 'i', 'n', 'd', '.', 'c', 'o', 'm'
+    };
+    private static final int DATA_SECTION_SEPARATOR_SIZE = 16;
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final long nodeCount;
+    private final int recordSize;
+    private final int ipVersion;
+    private final long searchTreeSize;
+    private final int dataSectionStart;
+    private final long ipv4StartNode;
+    private final String databaseType;
+
+    MaxMindDbReader(Path file) throws IOException {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("IP数据库文件过大: " + file);
+            }
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int metadataStart = findMetadataStart();
+        Object decoded = new Decoder(metadataStart, metadataStart).decode();
+        if (!(decoded instanceof Map)) {
+            throw new IOException("IP数据库元数据无效: " + file);
+        }
+        Map<?, ?> metadata = (Map<?, ?>) decoded;
+        this.nodeCount = toLong(metadata.get("node_count"));
+        this.recordSize = (int) toLong(metadata.get("record_size"));
+        this.ipVersion = (int) toLong(metadata.get("ip_version"));
+        this.databaseType = String.valueOf(metadata.get("database_type"));
+        if (recordSize != 24 && recordSize != 28 && recordSize != 32) {
+            throw new IOException("不支持的记录长度 " + recordSize + ": " + file);
+        }
+        this.searchTreeSize = nodeCount * recordSize / 4;
+        this.dataSectionStart = (int) (searchTreeSize + DATA_SECTION_SEPARATOR_SIZE);
+
+        // IPv6数据库中的IPv4地址位于 ::/96 子树下，预先找到其起点
+        long node = 0;
+        if (ipVersion == 6) {
+            for (int i = 0; i < 96 && node < nodeCount; i++) {
+                node = readNode(node, 0);
+            }
+        }
+        this.ipv4StartNode = node;
+    }
+
+    Path getFile() { return file; }
+    String getDatabaseType() { return databaseType; }
+
+    /**
+     * 查找IP对应记录在文件中的位置，没有记录时返回 -1
+     */
+    int findRecordOffset(byte[] address) {
+        if (address.length == 16 && ipVersion == 4) {
+            return -1;
+        }
+        long node = address.length == 4 ? ipv4StartNode : 0;
+        int bitCount = address.length * 8;
+        for (int i = 0; i < bitCount && node < nodeCount; i++) {
+            int bit = (address[i >>> 3] >>> (7 - (i & 7))) & 1;
+            node = readNode(node, bit);
+        }
+        if (node <= nodeCount) {
+            return -1;
+        }
+        return (int) (searchTreeSize + (node - nodeCount));
+    }
+
+    /**
+     * 解码指定位置的数据记录
+     */
+    Object readRecord(int offset) throws IOException {
+        return new Decoder(dataSectionStart, offset).decode();
+    }
+
+    private long readNode(long node, int index) {
+        switch (recordSize) {
+            case 24: {
+                int base = (int) (node * 6) + index * 3;
+                return readUnsigned(base, 3);
+            }
+            case 28: {
+                int base = (int) (node * 7);
+                int middle = buffer.get(base + 3) & 0xFF;
+                if (index == 0) {
+                    return ((long) (middle & 0xF0) << 20) | readUnsigned(base, 3);
+                }
+                return ((long) (middle & 0x0F) << 24) | readUnsigned(base + 4, 3);
+            }
+            default: {
+                int base = (int) (node * 8) + index * 4;
+                return readUnsigned(base, 4);
+            }
+        }
+    }
+
+    private long readUnsigned(int offset, int length) {
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | (buffer.get(offset + i) & 0xFF);
+        }
+        return value;
+    }
+
+    private int findMetadataStart() throws IOException {
+        int limit = buffer.capacity();
+        // 元数据位于文件末尾128KB内
+        int stop = Math.max(0, limit - 128 * 1024);
+        outer:
+        for (int i = limit - METADATA_MARKER.length; i >= stop; i--) {
+            for (int j = 0; j < METADATA_MARKER.length; j++) {
+                if (buffer.get(i + j) != METADATA_MARKER[j]) {
+                    continue outer;
+                }
+            }
+            return i + METADATA_MARKER.length;
+        }
+        throw new IOException("不是有效的MaxMind DB文件: " + file);
+    }
+
+    private static long toLong(Object value) throws IOException {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        throw new IOException("IP数据库元数据缺少必要字段");
+    }
+
+    /**
+     * 数据段解码器，指针相对于 base 计算
+     */
+    private final class Decoder {
+        private final int base;
+        private int position;
+
+        Decoder(int base, int position) {
+            this.base = base;
+            this.position = position;
+        }
+
+        Object decode() throws IOException {
+            int control = nextByte();
+            int type = control >>> 5;
+
+            if (type == 1) {
+                int target = base + readPointer(control);
+                int saved = position;
+                position = target;
+                Object value = decode();
+                position = saved;
+                return value;
+            }
+
+            if (type == 0) {
+                type = 7 + nextByte();
+            }
+
+            int size = control & 0x1F;
+            if (size >= 29) {
+                int extraBytes = size - 28;
+                long extra = readUnsigned(position, extraBytes);
+                position += extraBytes;
+                switch (extraBytes) {
+                    case 1: size = 29 + (int) extra; break;
+                    case 2: size = 285 + (int) extra; break;
+                    default: size = 65821 + (int) extra; break;
+                }
+            }
+
+            switch (type) {
+                case 2: {
+                    byte[] bytes = nextBytes(size);
+                    return new String(bytes, StandardCharsets.UTF_8);
+                }
+                case 3: {
+                    return Double.longBitsToDouble(readSized(8));
+                }
+                case 4: {
+                    return nextBytes(size);
+                }
+                case 5:
+                case 6:
+                case 9: {
+                    return readSized(size);
+                }
+                case 8: {
+                    return (int) readSized(size);
+                }
+                case 10: {
+                    return new BigInteger(1, nextBytes(size));
+                }
+                case 7: {
+                    Map<String, Object> map = new HashMap<>(Math.max(4, size * 2));
+                    for (int i = 0; i < size; i++) {
+                        Object key = decode();
+                        map.put(String.valueOf(key), decode());
+                    }
+                    return map;
+                }
+                case 11: {
+                    List<Object> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(decode());
+                    }
+                    return list;
+                }
+                case 14: {
+                    return size != 0;
+                }
+                case 15: {
+                    return Float.intBitsToFloat((int) readSized(4));
+                }
+                default:
+                    throw new IOException("IP数据库中存在无法识别的数据类型 " + type + ": " + file);
+            }
+        }
+
+        private int readPointer(int control) {
+            int pointerSize = (control >>> 3) & 0x3;
+            int value = control & 0x7;
+            switch (pointerSize) {
+                case 0:
+                    return (value << 8) | nextByte();
+                case 1:
+                    return ((value << 16) | (int) readSized(2)) + 2048;
+                case 2:
+                    return ((value << 24) | (int) readSized(3)) + 526336;
+                default:
+                    return (int) readSized(4);
+            }
+        }
+
+        private long readSized(int size) {
+            long value = readUnsigned(position, size);
+            position += size;
+            return value;
+        }
+
+        private int nextByte() {
+            return buffer.get(position++) & 0xFF;
+        }
+
+        private byte[] nextBytes(int size) {
+            byte[] bytes = new byte[size];
+            for (int i = 0; i < size; i++) {
+                bytes[i] = buffer.get(position + i);
+            }
+            position += size;
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package neko.chinaOnlyCore;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 检测引擎的运行指标：各阶段的耗时直方图、分段计数器（{@link LongAdder}）和由其他组件提供当前值的仪表，
+ * 供 /chinaonly stats 命令和Prometheus文本格式导出使用
+ */
+public final class Metrics {
+
+    /**
+     * 检测流程的各个阶段
+     */
+    public enum Stage {
+        // 从收到连接到得出结果，包括等待队列和在线查询
+        CHECK("check", "整个检测"),
+        NORMALIZE("normalize", "地址标准化"),
+        CACHE("cache", "内存缓存"),
+        DATABASE("database", "SQLite读取"),
+        REMOTE("remote", "在线查询"),
+        KEYWORDS("keywords", "关键词匹配"),
+        // 写入队列中的一批IP信息在一个事务中写入的耗时
+        DB_WRITE("db_write", "SQLite批量写入");
+
+        private final String label;
+        private final String displayName;
+
+        Stage(String label, String displayName) {
+            this.label = label;
+            this.displayName = displayName;
+        }
+    }
+
+    /**
+     * 计数器，同一个指标名称的计数器按标签区分
+     */
+    public enum Counter {
+        CACHE_HIT("chinaonly_cache_lookups_total", "layer=\"memory\",result=\"hit\"", "缓存查询次数"),
+        CACHE_MISS("chinaonly_cache_lookups_total", "layer=\"memory\",result=\"miss\"", "缓存查询次数"),
+        DATABASE_HIT("chinaonly_cache_lookups_total", "layer=\"database\",result=\"hit\"", "缓存查询次数"),
+        DATABASE_MISS("chinaonly_cache_lookups_total", "layer=\"database\",result=\"miss\"", "缓存查询次数"),
+        CACHE_EVICTION("chinaonly_cache_evictions_total", "layer=\"memory\"", "因容量或过期被淘汰的缓存结果数量"),
+        REMOTE_SUCCESS("chinaonly_remote_lookups_total", "result=\"success\"", "在线数据源查询次数"),
+        REMOTE_ERROR("chinaonly_remote_lookups_total", "result=\"error\"", "在线数据源查询次数"),
+        ALLOWED("chinaonly_verdicts_total", "result=\"allowed\"", "检测结果数量"),
+        DENIED("chinaonly_verdicts_total", "result=\"denied\"", "检测结果数量"),
+        ERROR("chinaonly_check_failures_total", "reason=\"error\"", "无法得出检测结果的次数"),
+        TIMEOUT("chinaonly_check_failures_total", "reason=\"timeout\"", "无法得出检测结果的次数"),
+        THROTTLED("chinaonly_admission_rejections_total", "", "因连接过于频繁在检测前被拒绝的次数"),
+        DENIED_FILTER_HIT("chinaonly_denied_filter_hits_total", "", "已知被拒绝的IP由过滤器直接拒绝的次数"),
+        REGION_RANGE_REJECTED("chinaonly_region_range_rejections_total", "", "地址段表确定不属于中国地区而直接拒绝的次数"),
+        EARLY_REJECTED("chinaonly_early_rejections_total", "", "在协议解码之前直接关闭的连接数");
+
+        private final String metricName;
+        private final String labels;
+        private final String help;
+
+        Counter(String metricName, String labels, String help) {
+            this.metricName = metricName;
+            this.labels = labels;
+            this.help = help;
+        }
+    }
+
+    /**
+     * 仪表，读取时从注册的来源获取当前值
+     */
+    public enum Gauge {
+        IP_API_REMAINING("chinaonly_ip_api_remaining_requests", "endpoint=\"single\"", "ip-api.com 当前时间窗口内剩余的请求额度"),
+        IP_API_BATCH_REMAINING("chinaonly_ip_api_remaining_requests", "endpoint=\"batch\"", "ip-api.com 当前时间窗口内剩余的请求额度");
+
+        private final String metricName;
+        private final String labels;
+        private final String help;
+
+        Gauge(String metricName, String labels, String help) {
+            this.metricName = metricName;
+            this.labels = labels;
+            this.help = help;
+        }
+    }
+
+    // 导出Prometheus直方图时使用的桶上限（秒）
+    private static final double[] BUCKET_SECONDS = {
+        0.0001, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+
+    private final Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+    private final Map<Counter, LongAdder> counters = new EnumMap<>(Counter.class);
+    // 在导出服务启动前注册，之后只读取
+    private final Map<Gauge, LongSupplier> gauges = new EnumMap<>(Gauge.class);
+
+    public Metrics() {
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+        for (Counter counter : Counter.values()) {
+            counters.put(counter, new LongAdder());
+        }
+    }
+
+    public LatencyHistogram histogram(Stage stage) {
+        return histograms.get(stage);
+    }
+
+    public void increment(Counter counter) {
+        counters.get(counter).increment();
+    }
+
+    public long get(Counter counter) {
+        return counters.get(counter).sum();
+    }
+
+    /**
+     * 计数器本身，供自行计数的组件（如内存缓存的淘汰）直接增加
+     */
+    LongAdder adder(Counter counter) {
+        return counters.get(counter);
+    }
+
+    /**
+     * 注册仪表的来源，未注册的仪表不显示也不导出
+     */
+    void registerGauge(Gauge gauge, LongSupplier source) {
+        gauges.put(gauge, source);
+    }
+
+    /**
+     * 仪表的当前值，未注册时为 0
+     */
+    public long get(Gauge gauge) {
+        LongSupplier source = gauges.get(gauge);
+        return source != null ? source.getAsLong() : 0L;
+    }
+
+    /**
+     * 记录一次检测的结果和总耗时
+     */
+    void recordVerdict(Verdict verdict, long startNanos) {
+        histograms.get(Stage.CHECK).recordSince(startNanos);
+        increment(verdict.isAllowed() ? Counter.ALLOWED : Counter.DENIED);
+    }
+
+    /**
+     * 供 /chinaonly stats 显示的统计信息
+     */
+    public List<String> describe() {
+        List<String> lines = new ArrayList<>();
+        lines.add("检测: 允许 " + get(Counter.ALLOWED) + ", 拒绝 " + get(Counter.DENIED)
+            + ", 出错 " + get(Counter.ERROR) + ", 超时 " + get(Counter.TIMEOUT));
+        lines.add("连接频率限制: 拒绝 " + get(Counter.THROTTLED));
+        lines.add("地址段表直接拒绝: " + get(Counter.REGION_RANGE_REJECTED));
+        lines.add("连接阶段提前关闭: " + get(Counter.EARLY_REJECTED));
+        lines.add("内存缓存: 命中 " + get(Counter.CACHE_HIT) + ", 未命中 " + get(Counter.CACHE_MISS)
+            + ", 淘汰 " + get(Counter.CACHE_EVICTION));
+        lines.add("SQLite: 命中 " + get(Counter.DATABASE_HIT) + ", 未命中 " + get(Counter.DATABASE_MISS));
+        lines.add("在线查询: 成功 " + get(Counter.REMOTE_SUCCESS) + ", 失败 " + get(Counter.REMOTE_ERROR));
+        if (gauges.containsKey(Gauge.IP_API_REMAINING)) {
+            lines.add("ip-api剩余额度: 单个查询 " + get(Gauge.IP_API_REMAINING) + ", 批量查询 " + get(Gauge.IP_API_BATCH_REMAINING));
+        }
+        lines.add("各阶段耗时 (p50 / p99 / 最大):");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram.Snapshot snapshot = histograms.get(stage).snapshot();
+            if (snapshot.getCount() == 0) {
+                continue;
+            }
+            lines.add("  " + stage.displayName + ": " + formatMillis(snapshot.percentileNanos(50))
+                + " / " + formatMillis(snapshot.percentileNanos(99))
+                + " / " + formatMillis(snapshot.getMaxNanos()) + " (" + snapshot.getCount() + " 次)");
+        }
+        return lines;
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format(Locale.ROOT, "%.2fms", nanos / 1_000_000.0);
+    }
+
+    /**
+     * Prometheus文本格式 (0.0.4) 的全部指标
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(8192);
+        // 同一个指标名称的HELP/TYPE只能出现一次，按名称分组输出，与枚举的顺序无关
+        Map<String, List<Counter>> counterFamilies = new LinkedHashMap<>();
+        for (Counter counter : Counter.values()) {
+            counterFamilies.computeIfAbsent(counter.metricName, name -> new ArrayList<>()).add(counter);
+        }
+        for (List<Counter> family : counterFamilies.values()) {
+            Counter first = family.get(0);
+            out.append("# HELP ").append(first.metricName).append(' ').append(first.help).append('\n');
+            out.append("# TYPE ").append(first.metricName).append(" counter\n");
+            for (Counter counter : family) {
+                appendSample(out, counter.metricName, counter.labels, get(counter));
+            }
+        }
+
+        Map<String, List<Gauge>> gaugeFamilies = new LinkedHashMap<>();
+        for (Gauge gauge : gauges.keySet()) {
+            gaugeFamilies.computeIfAbsent(gauge.metricName, name -> new ArrayList<>()).add(gauge);
+        }
+        for (List<Gauge> family : gaugeFamilies.values()) {
+            Gauge first = family.get(0);
+            out.append("# HELP ").append(first.metricName).append(' ').append(first.help).append('\n');
+            out.append("# TYPE ").append(first.metricName).append(" gauge\n");
+            for (Gauge gauge : family) {
+                appendSample(out, gauge.metricName, gauge.labels, get(gauge));
+            }
+        }
+
+        String name = "chinaonly_stage_duration_seconds";
+        out.append("# HELP ").append(name).append(" 检测各阶段的耗时\n");
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram.Snapshot snapshot = histograms.get(stage).snapshot();
+            for (double le : BUCKET_SECONDS) {
+                long bound = (long) (le * TimeUnit.SECONDS.toNanos(1));
+                out.append(name).append("_bucket{stage=\"").append(stage.label).append("\",le=\"")
+                    .append(BigDecimal.valueOf(le).stripTrailingZeros().toPlainString()).append("\"} ").append(snapshot.countAtOrBelow(bound)).append('\n');
+            }
+            out.append(name).append("_bucket{stage=\"").append(stage.label).append("\",le=\"+Inf\"} ")
+                .append(snapshot.getCount()).append('\n');
+            out.append(name).append("_sum{stage=\"").append(stage.label).append("\"} ")
+                .append(snapshot.getSumNanos() / 1e9).append('\n');
+            out.append(name).append("_count{stage=\"").append(stage.label).append("\"} ")
+                .append(snapshot.getCount()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void appendSample(StringBuilder out, String name, String labels, long value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+}
@@ -0,0 +1,28 @@
+package neko.chinaOnlyCore;
+
+/**
+ * 在线数据源不可用（故障、熔断、额度不足或超时）时对未知IP的处理方式
+ */
+public enum OutagePolicy {
+    // 拒绝连接
+    DENY,
+    // 使用内存缓存中已过期的结果，没有时拒绝
+    ALLOW_IF_CACHED_STALE,
+    // 暂时放行，数据源恢复后重新检测，不通过时踢出玩家
+    ALLOW_AND_RECHECK;
+
+    /**
+     * 解析配置值（如 allow-and-recheck），无法识别时使用 DENY
+     */
+    public static OutagePolicy fromConfig(String value) {
+        if (value != null) {
+            String name = value.trim().replace('-', '_').toUpperCase();
+            for (OutagePolicy policy : values()) {
+                if (policy.name().equals(name)) {
+                    return policy;
+                }
+            }
+        }
+        return DENY;
+    }
+}
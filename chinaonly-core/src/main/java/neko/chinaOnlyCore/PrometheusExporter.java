@@ -0,0 +1,78 @@
+package neko.chinaOnlyCore;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * 以Prometheus文本格式在 /metrics 导出指标的本地HTTP服务，只使用JDK自带的HTTP服务器
+ */
+final class PrometheusExporter {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private PrometheusExporter(HttpServer server, ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+    }
+
+    /**
+     * 在指定地址上启动导出服务，端口被占用等情况下记录警告并返回 null
+     */
+    static PrometheusExporter start(String host, int port, Metrics metrics, Logger logger) {
+        HttpServer server;
+        try {
+            server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warning("无法启动Prometheus指标服务 " + host + ":" + port + ": " + e.getMessage());
+            return null;
+        }
+        // 抓取请求很少，一个线程足够
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ChinaOnly-Metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.createContext("/metrics", exchange -> handle(exchange, metrics));
+        server.setExecutor(executor);
+        server.start();
+        logger.info("Prometheus指标服务已启动: http://" + host + ":" + port + "/metrics");
+        return new PrometheusExporter(server, executor);
+    }
+
+    private static void handle(HttpExchange exchange, Metrics metrics) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(method)) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,17 @@
+package neko.chinaOnlyCore;
+
+import java.io.IOException;
+
+/**
+ * 在线数据源暂时无法给出结果（故障、熔断或额度不足），区别于数据源明确没有该IP的信息
+ */
+public class ProvidersUnavailableException extends IOException {
+
+    public ProvidersUnavailableException(String message) {
+        super(message);
+    }
+
+    public ProvidersUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,238 @@
+package neko.chinaOnlyCore;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * ISP/组织名称中的代理关键词匹配器
+ * <p>
+ * 所有关键词在加载配置时编译为一个 Aho-Corasick 自动机，每次匹配只扫描一遍名称，
+ * 耗时与关键词数量无关；逐个字符转换小写，不创建新的字符串。
+ * 完整单词关键词要求前后不是英文字母或数字，避免 "ss" 匹配到 "Business" 之类的普通单词
+ */
+public final class ProxyKeywords {
+
+    public static final List<String> DEFAULT_CONTAINS = Collections.unmodifiableList(Arrays.asList(
+        "proxy", "vpn", "shadowsocks", "v2ray", "trojan", "openvpn", "wireguard",
+        "代理", "翻墙", "机场", "加速器", "线路"
+    ));
+    public static final List<String> DEFAULT_WHOLE_WORDS = Collections.unmodifiableList(Arrays.asList("ss", "ssr"));
+
+    private static final int ROOT = 0;
+    private static final int[] NO_LENGTHS = new int[0];
+
+    // 每个状态的出边按字符排序，二分查找
+    private final char[][] labels;
+    private final int[][] targets;
+    private final int[] failure;
+    // 到达该状态时是否匹配了任意位置的关键词（包含失败链上的关键词）
+    private final boolean[] containsMatch;
+    // 到达该状态时匹配的完整单词关键词长度（包含失败链上的关键词）
+    private final int[][] wholeWordLengths;
+    // 关键词无法表达的规则合并成的一个正则表达式，没有时为 null
+    private final Pattern pattern;
+    // 无法编译而被忽略的正则表达式及其错误信息
+    private final List<String> invalidPatterns;
+
+    private ProxyKeywords(char[][] labels, int[][] targets, int[] failure, boolean[] containsMatch,
+                          int[][] wholeWordLengths, Pattern pattern, List<String> invalidPatterns) {
+        this.labels = labels;
+        this.targets = targets;
+        this.failure = failure;
+        this.containsMatch = containsMatch;
+        this.wholeWordLengths = wholeWordLengths;
+        this.pattern = pattern;
+        this.invalidPatterns = Collections.unmodifiableList(invalidPatterns);
+    }
+
+    /**
+     * 默认的关键词列表
+     */
+    public static ProxyKeywords defaults() {
+        return compile(DEFAULT_CONTAINS, DEFAULT_WHOLE_WORDS, Collections.emptyList());
+    }
+
+    /**
+     * 编译关键词，空白项和无效的正则表达式会被忽略，无效的正则表达式可通过 {@link #getInvalidPatterns()} 获取；
+     * 同一个词同时出现在两个列表中时按任意位置匹配
+     */
+    public static ProxyKeywords compile(Collection<String> contains, Collection<String> wholeWords, Collection<String> patterns) {
+        List<Map<Character, Integer>> trie = new ArrayList<>();
+        List<Boolean> containsEnd = new ArrayList<>();
+        List<Integer> wholeWordEnd = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        containsEnd.add(false);
+        wholeWordEnd.add(0);
+
+        for (String keyword : contains) {
+            int state = insert(trie, containsEnd, wholeWordEnd, keyword);
+            if (state > ROOT) {
+                containsEnd.set(state, true);
+            }
+        }
+        for (String keyword : wholeWords) {
+            int state = insert(trie, containsEnd, wholeWordEnd, keyword);
+            if (state > ROOT) {
+                wholeWordEnd.set(state, keyword.trim().length());
+            }
+        }
+
+        int size = trie.size();
+        char[][] labels = new char[size][];
+        int[][] targets = new int[size][];
+        for (int state = 0; state < size; state++) {
+            Map<Character, Integer> children = trie.get(state);
+            labels[state] = new char[children.size()];
+            targets[state] = new int[children.size()];
+            int index = 0;
+            // TreeMap 按字符升序遍历
+            for (Map.Entry<Character, Integer> child : children.entrySet()) {
+                labels[state][index] = child.getKey();
+                targets[state][index] = child.getValue();
+                index++;
+            }
+        }
+
+        // 按层次计算失败指针，并把失败链上的匹配结果合并到当前状态
+        int[] failure = new int[size];
+        boolean[] containsMatch = new boolean[size];
+        int[][] wholeWordLengths = new int[size][];
+        wholeWordLengths[ROOT] = NO_LENGTHS;
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int child : targets[ROOT]) {
+            failure[child] = ROOT;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            int fallback = failure[state];
+            containsMatch[state] = containsEnd.get(state) || containsMatch[fallback];
+            wholeWordLengths[state] = mergeLengths(wholeWordEnd.get(state), wholeWordLengths[fallback]);
+            for (int i = 0; i < labels[state].length; i++) {
+                char c = labels[state][i];
+                int child = targets[state][i];
+                int f = fallback;
+                int next;
+                while ((next = step(labels, targets, f, c)) < 0 && f != ROOT) {
+                    f = failure[f];
+                }
+                failure[child] = next >= 0 ? next : ROOT;
+                queue.add(child);
+            }
+        }
+
+        List<String> invalidPatterns = new ArrayList<>();
+        return new ProxyKeywords(labels, targets, failure, containsMatch, wholeWordLengths,
+            compilePatterns(patterns, invalidPatterns), invalidPatterns);
+    }
+
+    private static int insert(List<Map<Character, Integer>> trie, List<Boolean> containsEnd, List<Integer> wholeWordEnd,
+                              String keyword) {
+        if (keyword == null || keyword.trim().isEmpty()) {
+            return ROOT;
+        }
+        String trimmed = keyword.trim();
+        int state = ROOT;
+        for (int i = 0; i < trimmed.length(); i++) {
+            char c = Character.toLowerCase(trimmed.charAt(i));
+            Integer next = trie.get(state).get(c);
+            if (next == null) {
+                next = trie.size();
+                trie.get(state).put(c, next);
+                trie.add(new TreeMap<>());
+                containsEnd.add(false);
+                wholeWordEnd.add(0);
+            }
+            state = next;
+        }
+        return state;
+    }
+
+    private static int[] mergeLengths(int own, int[] inherited) {
+        if (own == 0) {
+            return inherited;
+        }
+        int[] merged = Arrays.copyOf(inherited, inherited.length + 1);
+        merged[inherited.length] = own;
+        return merged;
+    }
+
+    private static Pattern compilePatterns(Collection<String> patterns, List<String> invalidPatterns) {
+        StringBuilder combined = new StringBuilder();
+        for (String regex : patterns) {
+            if (regex == null || regex.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                Pattern.compile(regex);
+            } catch (PatternSyntaxException e) {
+                invalidPatterns.add(regex + " (" + e.getDescription() + ")");
+                continue;
+            }
+            if (combined.length() > 0) {
+                combined.append('|');
+            }
+            combined.append("(?:").append(regex).append(')');
+        }
+        return combined.length() > 0
+            ? Pattern.compile(combined.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE)
+            : null;
+    }
+
+    private static int step(char[][] labels, int[][] targets, int state, char c) {
+        int index = Arrays.binarySearch(labels[state], c);
+        return index >= 0 ? targets[state][index] : -1;
+    }
+
+    /**
+     * 配置中无法编译而被忽略的正则表达式，每项为表达式和错误信息
+     */
+    public List<String> getInvalidPatterns() {
+        return invalidPatterns;
+    }
+
+    /**
+     * 检查名称中是否包含代理相关关键词（不区分大小写）
+     */
+    public boolean matches(CharSequence text) {
+        if (text == null) return false;
+
+        int length = text.length();
+        int state = ROOT;
+        for (int i = 0; i < length; i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            int next;
+            while ((next = step(labels, targets, state, c)) < 0 && state != ROOT) {
+                state = failure[state];
+            }
+            state = next >= 0 ? next : ROOT;
+            if (containsMatch[state]) {
+                return true;
+            }
+            for (int keywordLength : wholeWordLengths[state]) {
+                if (isBoundary(text, i - keywordLength) && isBoundary(text, i + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        return pattern != null && pattern.matcher(text).find();
+    }
+
+    private static boolean isBoundary(CharSequence text, int index) {
+        if (index < 0 || index >= text.length()) {
+            return true;
+        }
+        char c = text.charAt(index);
+        return !((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9'));
+    }
+}
@@ -0,0 +1,11 @@
+package neko.chinaOnlyCore;
+
+/**
+ * 远程API的请求额度已用完，查询没有发出
+ */
+public class RateLimitedException extends ProvidersUnavailableException {
+
+    public RateLimitedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,305 @@
+package neko.chinaOnlyCore;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * 由RIR分配统计文件（如 delegated-apnic-latest）构建的紧凑地址段表，只记录每个地址段所属的国家
+ * <p>
+ * IPv4地址段按起始地址排序存放在 int 数组中，IPv6地址段按前64位存放在 long 数组中，
+ * 查询只做一次二分查找，不产生任何对象；作为数据源时可在在线查询都失败后充当替补，但无法识别代理
+ */
+public final class RegionRangeTable implements GeoProvider {
+    // IPv4地址段，按无符号起始地址排序，起止地址均包含在内
+    private final int[] v4Starts;
+    private final int[] v4Ends;
+    private final short[] v4Countries;
+    // IPv6地址段只取前64位，分配统计中几乎没有比 /64 更小的地址段
+    private final long[] v6Starts;
+    private final long[] v6Ends;
+    private final short[] v6Countries;
+    private final String[] countryCodes;
+
+    private RegionRangeTable(int[] v4Starts, int[] v4Ends, short[] v4Countries,
+                             long[] v6Starts, long[] v6Ends, short[] v6Countries, String[] countryCodes) {
+        this.v4Starts = v4Starts;
+        this.v4Ends = v4Ends;
+        this.v4Countries = v4Countries;
+        this.v6Starts = v6Starts;
+        this.v6Ends = v6Ends;
+        this.v6Countries = v6Countries;
+        this.countryCodes = countryCodes;
+    }
+
+    /**
+     * 加载配置中的分配统计文件，相对路径基于插件数据目录；没有可用文件时返回 null
+     */
+    public static RegionRangeTable load(Path dataDirectory, List<String> files, Logger logger) {
+        Builder builder = new Builder();
+        boolean loaded = false;
+        for (String name : files) {
+            if (name == null || name.trim().isEmpty()) {
+                continue;
+            }
+            Path file = dataDirectory.resolve(name.trim());
+            if (!Files.isRegularFile(file)) {
+                logger.warning("找不到IP地址段文件: " + file);
+                continue;
+            }
+            try {
+                int count = builder.read(file);
+                loaded = true;
+                logger.info("已加载IP地址段文件: " + file.getFileName() + " (" + count + " 条记录)");
+            } catch (IOException e) {
+                logger.severe("无法加载IP地址段文件 " + file + ": " + e.getMessage());
+            }
+        }
+        if (!loaded) {
+            return null;
+        }
+        RegionRangeTable table = builder.build();
+        logger.info("IP地址段表: IPv4 " + table.v4Starts.length + " 段, IPv6 " + table.v6Starts.length + " 段");
+        return table;
+    }
+
+    /**
+     * 查询IP所属的国家代码，不在任何已知地址段中时返回 null
+     */
+    public String countryOf(IpKey key) {
+        long high = key.getHigh();
+        long low = key.getLow();
+        if (key.isIPv4()) {
+            int index = findV4((int) low);
+            return index < 0 ? null : countryCodes[v4Countries[index]];
+        }
+        int index = findV6(high);
+        return index < 0 ? null : countryCodes[v6Countries[index]];
+    }
+
+    public String countryOf(InetAddress address) {
+        return countryOf(IpKey.of(address));
+    }
+
+    @Override
+    public String getName() {
+        return "region-ranges";
+    }
+
+    @Override
+    public IPInfo lookup(String ip, InetAddress address) {
+        String countryCode = countryOf(address);
+        if (countryCode == null) {
+            return null;
+        }
+        return new IPInfo(ip, countryCode, countryCode, "", "", "", "", false, ChinaRegions.contains(countryCode), null);
+    }
+
+    @Override
+    public boolean isRemote() {
+        return false;
+    }
+
+    @Override
+    public boolean isProxyAuthoritative() {
+        return false;
+    }
+
+    private int findV4(int ip) {
+        // 查找起始地址不大于ip的最后一个地址段
+        int lo = 0;
+        int hi = v4Starts.length - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Integer.compareUnsigned(v4Starts[mid], ip) <= 0) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found >= 0 && Integer.compareUnsigned(ip, v4Ends[found]) <= 0 ? found : -1;
+    }
+
+    private int findV6(long prefix) {
+        int lo = 0;
+        int hi = v6Starts.length - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Long.compareUnsigned(v6Starts[mid], prefix) <= 0) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found >= 0 && Long.compareUnsigned(prefix, v6Ends[found]) <= 0 ? found : -1;
+    }
+
+    /**
+     * 读取分配统计文件时使用的临时结构，构建完成后转换为排序的数组
+     */
+    private static final class Builder {
+        private final List<long[]> v4Ranges = new ArrayList<>();
+        private final List<long[]> v6Ranges = new ArrayList<>();
+        private final Map<String, Short> countryIndexes = new HashMap<>();
+        private final List<String> countryCodes = new ArrayList<>();
+
+        /**
+         * 格式: registry|cc|type|start|value|date|status[|extensions]
+         */
+        int read(Path file) throws IOException {
+            int count = 0;
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty() || line.charAt(0) == '#') {
+                        continue;
+                    }
+                    String[] fields = line.split("\\|");
+                    // 跳过版本行、汇总行以及未分配的记录
+                    if (fields.length < 7 || fields[1].length() != 2 || "*".equals(fields[1])) {
+                        continue;
+                    }
+                    String status = fields[6];
+                    if (!"allocated".equals(status) && !"assigned".equals(status)) {
+                        continue;
+                    }
+                    try {
+                        if ("ipv4".equals(fields[2]) && addV4(fields[1], fields[3], Long.parseLong(fields[4]))) {
+                            count++;
+                        } else if ("ipv6".equals(fields[2]) && addV6(fields[1], fields[3], Integer.parseInt(fields[4]))) {
+                            count++;
+                        }
+                    } catch (IllegalArgumentException ignored) {
+                        // 忽略格式错误的行
+                    }
+                }
+            }
+            return count;
+        }
+
+        private boolean addV4(String countryCode, String start, long size) {
+            String[] octets = start.split("\\.");
+            if (octets.length != 4 || size <= 0) {
+                return false;
+            }
+            long value = 0;
+            for (String octet : octets) {
+                int part = Integer.parseInt(octet);
+                if (part < 0 || part > 255) {
+                    return false;
+                }
+                value = (value << 8) | part;
+            }
+            long end = Math.min(value + size - 1, 0xFFFFFFFFL);
+            v4Ranges.add(new long[]{value, end, indexOf(countryCode)});
+            return true;
+        }
+
+        private boolean addV6(String countryCode, String start, int prefixLength) {
+            if (prefixLength < 0 || prefixLength > 64 || start.indexOf(':') < 0) {
+                return false;
+            }
+            byte[] bytes;
+            try {
+                // 输入是IPv6字面量，不会触发DNS查询
+                bytes = InetAddress.getByName(start).getAddress();
+            } catch (IOException e) {
+                return false;
+            }
+            if (bytes.length != 16) {
+                return false;
+            }
+            long prefix = 0;
+            for (int i = 0; i < 8; i++) {
+                prefix = (prefix << 8) | (bytes[i] & 0xFF);
+            }
+            long hostMask = prefixLength == 0 ? -1L : prefixLength == 64 ? 0L : -1L >>> prefixLength;
+            v6Ranges.add(new long[]{prefix & ~hostMask, prefix | hostMask, indexOf(countryCode)});
+            return true;
+        }
+
+        private short indexOf(String countryCode) {
+            String code = countryCode.toUpperCase();
+            Short index = countryIndexes.get(code);
+            if (index == null) {
+                index = (short) countryCodes.size();
+                countryIndexes.put(code, index);
+                countryCodes.add(code);
+            }
+            return index;
+        }
+
+        RegionRangeTable build() {
+            List<long[]> v4 = merge(v4Ranges);
+            List<long[]> v6 = merge(v6Ranges);
+
+            int[] v4Starts = new int[v4.size()];
+            int[] v4Ends = new int[v4.size()];
+            short[] v4Countries = new short[v4.size()];
+            for (int i = 0; i < v4.size(); i++) {
+                long[] range = v4.get(i);
+                v4Starts[i] = (int) range[0];
+                v4Ends[i] = (int) range[1];
+                v4Countries[i] = (short) range[2];
+            }
+
+            long[] v6Starts = new long[v6.size()];
+            long[] v6Ends = new long[v6.size()];
+            short[] v6Countries = new short[v6.size()];
+            for (int i = 0; i < v6.size(); i++) {
+                long[] range = v6.get(i);
+                v6Starts[i] = range[0];
+                v6Ends[i] = range[1];
+                v6Countries[i] = (short) range[2];
+            }
+            return new RegionRangeTable(v4Starts, v4Ends, v4Countries, v6Starts, v6Ends, v6Countries,
+                countryCodes.toArray(new String[0]));
+        }
+
+        /**
+         * 排序并合并相邻且属于同一国家的地址段，重叠的部分以先出现的地址段为准
+         * <p>
+         * IPv4地址以非负 long 存放，因此两种地址段都可以按无符号比较
+         */
+        private static List<long[]> merge(List<long[]> ranges) {
+            long[][] sorted = ranges.toArray(new long[0][]);
+            Arrays.sort(sorted, (a, b) -> Long.compareUnsigned(a[0], b[0]));
+            List<long[]> merged = new ArrayList<>(sorted.length);
+            for (long[] range : sorted) {
+                if (!merged.isEmpty()) {
+                    long[] last = merged.get(merged.size() - 1);
+                    if (Long.compareUnsigned(range[0], last[1]) <= 0) {
+                        if (Long.compareUnsigned(range[1], last[1]) > 0) {
+                            if (range[2] == last[2]) {
+                                last[1] = range[1];
+                            } else {
+                                // 重叠但国家不同，只保留未被覆盖的部分
+                                merged.add(new long[]{last[1] + 1, range[1], range[2]});
+                            }
+                        }
+                        continue;
+                    }
+                    if (range[2] == last[2] && range[0] == last[1] + 1) {
+                        last[1] = range[1];
+                        continue;
+                    }
+                }
+                merged.add(range.clone());
+            }
+            return merged;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package neko.chinaOnlyCore;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 客户端请求额度（令牌桶），按服务端返回的剩余次数和重置时间校准
+ * <p>
+ * 令牌按 limit/window 的速度持续补充，最多积累 limit 个；服务端报告额度用完时，
+ * 在重置之前不再发出请求
+ */
+final class RequestQuota {
+    private final int limit;
+    private final long windowNanos;
+
+    private double tokens;
+    private long lastRefillNanos;
+    // 服务端报告额度已用完时，在此时间之前不再发送请求
+    private long blockedUntilNanos;
+
+    RequestQuota(int limit, long windowSeconds) {
+        this.limit = limit;
+        this.windowNanos = TimeUnit.SECONDS.toNanos(windowSeconds);
+        this.tokens = limit;
+        this.lastRefillNanos = System.nanoTime();
+        this.blockedUntilNanos = lastRefillNanos;
+    }
+
+    /**
+     * 取得一次请求额度，最多等待 maxWaitMillis，等待时间不够时抛出 {@link RateLimitedException}
+     */
+    void acquire(long maxWaitMillis) throws RateLimitedException, InterruptedIOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        while (true) {
+            long now = System.nanoTime();
+            long waitNanos;
+            synchronized (this) {
+                refill(now);
+                if (now - blockedUntilNanos >= 0 && tokens >= 1.0) {
+                    tokens -= 1.0;
+                    return;
+                }
+                waitNanos = nanosUntilAvailable(now);
+            }
+            if (now + waitNanos - deadline > 0) {
+                throw new RateLimitedException("请求额度已用完，约 "
+                    + TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L) + " 秒后恢复");
+            }
+            LockSupport.parkNanos(this, waitNanos);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待请求额度时被中断");
+            }
+        }
+    }
+
+    /**
+     * 根据响应头更新额度，remaining 为当前窗口内剩余的请求次数，ttlSeconds 为距离重置的秒数
+     */
+    synchronized void update(int remaining, long ttlSeconds) {
+        long now = System.nanoTime();
+        refill(now);
+        tokens = Math.min(tokens, Math.max(0, remaining));
+        if (remaining <= 0) {
+            blockUntil(now, ttlSeconds);
+        }
+    }
+
+    /**
+     * 服务端拒绝了请求（HTTP 429），在重置之前停止发送
+     */
+    synchronized void exhausted(long ttlSeconds) {
+        long now = System.nanoTime();
+        refill(now);
+        tokens = 0.0;
+        blockUntil(now, ttlSeconds > 0 ? ttlSeconds : TimeUnit.NANOSECONDS.toSeconds(windowNanos));
+    }
+
+    /**
+     * 当前可立即使用的请求次数
+     */
+    synchronized int getRemaining() {
+        long now = System.nanoTime();
+        refill(now);
+        return now - blockedUntilNanos < 0 ? 0 : (int) tokens;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    private void blockUntil(long now, long ttlSeconds) {
+        // 多等一秒，避免与服务端的窗口边界赛跑
+        long until = now + TimeUnit.SECONDS.toNanos(Math.max(0L, ttlSeconds) + 1L);
+        if (until - blockedUntilNanos > 0) {
+            blockedUntilNanos = until;
+        }
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefillNanos;
+        if (elapsed > 0) {
+            tokens = Math.min(limit, tokens + (double) elapsed * limit / windowNanos);
+            lastRefillNanos = now;
+        }
+    }
+
+    private long nanosUntilAvailable(long now) {
+        long blocked = blockedUntilNanos - now;
+        if (blocked > 0) {
+            return blocked;
+        }
+        return Math.max(1L, (long) ((1.0 - tokens) * windowNanos / limit));
+    }
+}
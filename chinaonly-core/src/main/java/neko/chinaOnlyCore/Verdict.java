@@ -0,0 +1,59 @@
+package neko.chinaOnlyCore;
+
+public final class Verdict {
+
+    public enum Reason {
+        ALLOWED,
+        // 在线数据源不可用时按策略暂时放行，恢复后会重新检测
+        ALLOWED_UNVERIFIED,
+        NOT_CHINA_REGION,
+        REGION_DENIED,
+        PROXY,
+        PROXY_KEYWORD,
+        LOOKUP_FAILED,
+        TIMEOUT,
+        OVERLOADED,
+        // 同一IP或网段短时间内连接过于频繁，未进行检测
+        THROTTLED,
+        // 之前的检测已拒绝该IP或所在网段，由已知拒绝过滤器直接拒绝
+        KNOWN_DENIED,
+        RATE_LIMITED
+    }
+
+    private final Reason reason;
+    private final String countryCode;
+    // 没有代理信息的数据源得出的结果只用于本次检测，不进入缓存
+    private final boolean cacheable;
+
+    private Verdict(Reason reason, String countryCode, boolean cacheable) {
+        this.reason = reason;
+        this.countryCode = countryCode;
+        this.cacheable = cacheable;
+    }
+
+    public static Verdict of(Reason reason, String countryCode) {
+        return new Verdict(reason, countryCode, true);
+    }
+
+    public static Verdict of(Reason reason) {
+        return new Verdict(reason, null, true);
+    }
+
+    /**
+     * 相同的结果，但只用于本次检测
+     */
+    Verdict uncached() {
+        return new Verdict(reason, countryCode, false);
+    }
+
+    boolean isCacheable() { return cacheable; }
+
+    public boolean isAllowed() { return reason == Reason.ALLOWED || reason == Reason.ALLOWED_UNVERIFIED; }
+    public Reason getReason() { return reason; }
+    public String getCountryCode() { return countryCode; }
+
+    @Override
+    public String toString() {
+        return (isAllowed() ? "允许" : "拒绝") + " (" + reason + (countryCode != null ? ", " + countryCode : "") + ")";
+    }
+}
@@ -0,0 +1,130 @@
+package neko.chinaOnlyCore;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 位于SQLite之前的进程内检测结果缓存，按容量 (LRU) 和存活时间淘汰
+ * <p>
+ * 缓存分为多个段，每段单独加锁，减少并发登录之间的锁竞争；过期的结果在容忍期内仍会保留，
+ * 供在线数据源不可用时使用
+ */
+public class VerdictCache {
+    private static final int SEGMENT_COUNT = 16;
+
+    private final Segment[] segments;
+    private final long ttlNanos;
+    private final long staleNanos;
+    // 命中和未命中由调用方计入 Metrics，这里只统计淘汰数量
+    private final LongAdder evictions;
+
+    /**
+     * @param evictions 因容量或超过容忍期被淘汰时增加的计数器
+     */
+    public VerdictCache(int maxEntries, long ttlSeconds, long staleSeconds, LongAdder evictions) {
+        int segmentCapacity = Math.max(1, (maxEntries + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+        this.segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.staleNanos = TimeUnit.SECONDS.toNanos(Math.max(0L, staleSeconds));
+        this.evictions = evictions;
+    }
+
+    private Segment segmentFor(IpKey key) {
+        return segments[key.hashCode() & (SEGMENT_COUNT - 1)];
+    }
+
+    /**
+     * 获取未过期的检测结果，不存在或已过期时返回 null
+     */
+    public Verdict get(IpKey key) {
+        Segment segment = segmentFor(key);
+        long now = System.nanoTime();
+        synchronized (segment) {
+            Entry entry = segment.get(key);
+            if (entry != null) {
+                if (now - entry.expiresAt < 0) {
+                    return entry.verdict;
+                }
+                if (now - entry.expiresAt - staleNanos >= 0) {
+                    segment.remove(key);
+                    evictions.increment();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取结果，包括已过期但仍在容忍期内的结果，不存在时返回 null
+     */
+    public Verdict getStale(IpKey key) {
+        Segment segment = segmentFor(key);
+        long now = System.nanoTime();
+        synchronized (segment) {
+            Entry entry = segment.get(key);
+            if (entry != null && now - entry.expiresAt - staleNanos < 0) {
+                return entry.verdict;
+            }
+        }
+        return null;
+    }
+
+    public void put(IpKey key, Verdict verdict) {
+        Segment segment = segmentFor(key);
+        Entry entry = new Entry(verdict, System.nanoTime() + ttlNanos);
+        synchronized (segment) {
+            segment.put(key, entry);
+        }
+    }
+
+    public void invalidateAll() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private static final class Entry {
+        final Verdict verdict;
+        final long expiresAt;
+
+        Entry(Verdict verdict, long expiresAt) {
+            this.verdict = verdict;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final class Segment extends LinkedHashMap<IpKey, Entry> {
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<IpKey, Entry> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,830 @@
+package neko.chinaOnlyCore;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 与平台无关的IP检测引擎，各平台插件只负责把登录事件转交给它
+ */
+public class VerdictEngine {
+    // 等待重新检测的IP上限，超过后不再暂时放行
+    private static final int MAX_PENDING_RECHECKS = 10000;
+    // 等待后台刷新的IP上限，超过后新的过期信息暂不刷新
+    private static final int MAX_PENDING_REFRESHES = 10000;
+    private static final Verdict THROTTLED = Verdict.of(Verdict.Reason.THROTTLED);
+    private static final Verdict KNOWN_DENIED = Verdict.of(Verdict.Reason.KNOWN_DENIED);
+
+    private final Logger logger;
+    private final DatabaseManager databaseManager;
+    // 本地离线数据库，为 null 表示未配置
+    private final GeoProvider localProvider;
+    // RIR地址段表，只用于快速判断国家，为 null 表示未配置
+    private final RegionRangeTable regionRanges;
+    private final GeoHttpClient geoHttp;
+    private final IpApiClient apiClient;
+    // 按顺序组合的在线数据源，带对冲请求和熔断
+    private final GeoProviderChain providerChain;
+    private final ThreadPoolExecutor lookupExecutor;
+    // 内存中的检测结果缓存，命中时无需访问数据库，为 null 表示已禁用
+    private final VerdictCache verdictCache;
+    // 正在进行或刚完成的检测，同一IP的登录和预取共享同一个结果
+    private final ConcurrentHashMap<IpKey, CompletableFuture<Verdict>> lookupFutures = new ConcurrentHashMap<>();
+    // 复用已有检测任务而没有发起新查询的次数
+    private final LongAdder coalescedLookups = new LongAdder();
+    private final Metrics metrics = new Metrics();
+    // 未启用时为 null，重新加载配置时重新创建
+    private volatile ConnectionRateLimiter rateLimiter;
+    // 维护已知被拒绝的IP和网段，未连接数据库时为 null，重新加载配置时重建
+    private final DeniedFilterTracker deniedTracker;
+    // 未启用或启动失败时为 null
+    private final PrometheusExporter prometheusExporter;
+    // 在线数据源不可用时暂时放行、等待重新检测的IP
+    private final ConcurrentHashMap<IpKey, InetAddress> pendingRechecks = new ConcurrentHashMap<>();
+    private final AtomicBoolean recheckScheduled = new AtomicBoolean();
+    private volatile BiConsumer<InetAddress, Verdict> recheckListener;
+    // 数据库中已过期、等待后台刷新的IP，以及正在刷新的IP
+    private final ConcurrentHashMap<IpKey, InetAddress> pendingRefreshes = new ConcurrentHashMap<>();
+    private final Set<IpKey> refreshesInFlight = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+    // ip-api查询是否经过批量接口，决定后台刷新消耗的是哪一种额度
+    private final boolean apiBatching;
+    private volatile boolean closed;
+    private volatile EngineSettings settings;
+
+    public VerdictEngine(EngineSettings settings, Path dataDirectory, Logger logger) {
+        this.settings = settings;
+        this.logger = logger;
+        warnInvalidSettings(settings);
+        this.databaseManager = openDatabase(dataDirectory, settings);
+        if (databaseManager != null) {
+            databaseManager.setWriteLatency(metrics.histogram(Metrics.Stage.DB_WRITE));
+        }
+        this.localProvider = MaxMindDbProvider.open(dataDirectory, settings.getLocalDatabaseFiles(), logger);
+        this.regionRanges = RegionRangeTable.load(dataDirectory, settings.getRegionRangeFiles(), logger);
+        this.geoHttp = new GeoHttpClient(settings);
+        this.apiClient = new IpApiClient(geoHttp, settings);
+        metrics.registerGauge(Metrics.Gauge.IP_API_REMAINING, apiClient::getRemainingRequests);
+        metrics.registerGauge(Metrics.Gauge.IP_API_BATCH_REMAINING, apiClient::getRemainingBatchRequests);
+        // 合并并发的ip-api查询，未启用时每个IP单独请求
+        IpApiBatcher apiBatcher = settings.isBatchEnabled()
+            ? new IpApiBatcher(apiClient, logger, settings.getBatchMaxSize(), settings.getBatchLingerMillis(), settings.getLookupQueueSize())
+            : null;
+        this.apiBatching = apiBatcher != null;
+        this.providerChain = GeoProviderChain.create(settings, apiClient, apiBatcher, geoHttp, regionRanges, logger);
+        this.lookupExecutor = createLookupExecutor(settings.getMaxConcurrentLookups(), settings.getLookupQueueSize());
+        this.verdictCache = settings.getVerdictCacheMaxEntries() > 0
+            ? new VerdictCache(settings.getVerdictCacheMaxEntries(), settings.getVerdictCacheTtlSeconds(),
+                settings.getStaleMaxAgeSeconds(), metrics.adder(Metrics.Counter.CACHE_EVICTION))
+            : null;
+        this.rateLimiter = ConnectionRateLimiter.create(settings);
+        this.prometheusExporter = settings.isPrometheusEnabled()
+            ? PrometheusExporter.start(settings.getPrometheusHost(), settings.getPrometheusPort(), metrics, logger)
+            : null;
+        this.deniedTracker = databaseManager != null
+            ? new DeniedFilterTracker(databaseManager, ipInfo -> !evaluate(ipInfo, null).isAllowed(), logger)
+            : null;
+        rebuildDeniedFilter();
+    }
+
+    private DatabaseManager openDatabase(Path dataDirectory, EngineSettings settings) {
+        try {
+            Class.forName("org.sqlite.JDBC");
+            Files.createDirectories(dataDirectory);
+            return new DatabaseManager(dataDirectory, settings.getDatabaseReadConnections(),
+                settings.getDatabaseWriteBatchSize(), settings.getDatabaseFlushIntervalMillis(),
+                settings.isPrefixCacheEnabled() ? settings.getPrefixCacheIpv4Length() : 0,
+                settings.isPrefixCacheEnabled() ? settings.getPrefixCacheIpv6Length() : 0, logger);
+        } catch (ClassNotFoundException | IOException e) {
+            logger.severe("无法加载SQLite JDBC驱动或创建数据目录: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 创建有界的IP检测线程池，队列已满时直接拒绝提交
+     */
+    private static ThreadPoolExecutor createLookupExecutor(int threads, int queueSize) {
+        AtomicInteger threadId = new AtomicInteger();
+        return new ThreadPoolExecutor(
+            threads, threads,
+            60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize),
+            runnable -> {
+                Thread thread = new Thread(runnable, "ChinaOnly-Lookup-" + threadId.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy()
+        );
+    }
+
+    public EngineSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * 重新加载配置后更新设置，线程池、缓存大小、连接超时和数据源列表需重启后生效
+     */
+    public void updateSettings(EngineSettings settings) {
+        this.settings = settings;
+        warnInvalidSettings(settings);
+        geoHttp.applySettings(settings);
+        apiClient.applySettings(settings);
+        providerChain.applySettings(settings);
+        rateLimiter = ConnectionRateLimiter.create(settings);
+        lookupFutures.clear();
+        // 已缓存的结果基于旧的地区设置，需要全部作废
+        if (verdictCache != null) {
+            verdictCache.invalidateAll();
+        }
+        rebuildDeniedFilter();
+    }
+
+    /**
+     * 提示配置中被忽略的无效项
+     */
+    private void warnInvalidSettings(EngineSettings settings) {
+        for (String invalid : settings.getProxyKeywords().getInvalidPatterns()) {
+            logger.warning("无效的代理关键词正则表达式，已忽略: " + invalid);
+        }
+    }
+
+    /**
+     * 创建新的已知拒绝过滤器并在后台从数据库重建，重建完成前不用于拒绝连接；
+     * 过滤器误判的IP依靠内存缓存纠正，因此未启用内存缓存时不创建
+     */
+    private void rebuildDeniedFilter() {
+        if (deniedTracker == null) {
+            return;
+        }
+        EngineSettings current = settings;
+        // 已失效的记录在下次连接时会重新查询，不在过滤器中
+        boolean canExpire = localProvider == null || current.isRemoteFallback();
+        deniedTracker.rebuild(verdictCache != null ? DeniedFilter.create(current) : null,
+            canExpire ? current.getIpInfoExpireAfterSeconds() : 0L);
+    }
+
+    /**
+     * 因同一IP已有检测任务而被合并的查询次数
+     */
+    public long getCoalescedLookups() {
+        return coalescedLookups.sum();
+    }
+
+    /**
+     * ip-api.com 客户端，可用于查看剩余的请求额度
+     */
+    public IpApiClient getApiClient() {
+        return apiClient;
+    }
+
+    /**
+     * 在线数据源，可用于查看各数据源的熔断状态
+     */
+    public GeoProviderChain getProviderChain() {
+        return providerChain;
+    }
+
+    /**
+     * 各阶段耗时和计数器
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * /chinaonly stats 命令显示的统计信息
+     */
+    public List<String> describeStats() {
+        List<String> lines = new ArrayList<>(metrics.describe());
+        String filterState = deniedTracker != null ? deniedTracker.describe() : null;
+        if (filterState != null) {
+            lines.add("已知拒绝过滤器: " + filterState + ", 命中 " + metrics.get(Metrics.Counter.DENIED_FILTER_HIT));
+        }
+        lines.add("合并的重复查询: " + getCoalescedLookups());
+        lines.add("数据源:");
+        for (String line : providerChain.describe()) {
+            lines.add("  " + line);
+        }
+        return lines;
+    }
+
+    /**
+     * 异步检测IP是否允许连接，返回的结果总会在超时时间内完成且不会异常结束
+     */
+    public CompletableFuture<Verdict> check(InetAddress address) {
+        long startNanos = System.nanoTime();
+        IpKey key = IpKey.of(address);
+        metrics.histogram(Metrics.Stage.NORMALIZE).recordSince(startNanos);
+
+        // 连接过于频繁的来源在任何查询之前直接拒绝，洪水攻击的每次连接只需几次CAS
+        ConnectionRateLimiter limiter = rateLimiter;
+        if (limiter != null && !limiter.tryAcquire(key)) {
+            metrics.increment(Metrics.Counter.THROTTLED);
+            metrics.recordVerdict(THROTTLED, startNanos);
+            return CompletableFuture.completedFuture(THROTTLED);
+        }
+
+        if (verdictCache != null) {
+            long cacheStartNanos = System.nanoTime();
+            Verdict cached = verdictCache.get(key);
+            metrics.histogram(Metrics.Stage.CACHE).recordSince(cacheStartNanos);
+            if (cached != null) {
+                metrics.increment(Metrics.Counter.CACHE_HIT);
+                metrics.recordVerdict(cached, startNanos);
+                return CompletableFuture.completedFuture(cached);
+            }
+            metrics.increment(Metrics.Counter.CACHE_MISS);
+        }
+
+        // 之前被拒绝过的IP或网段直接拒绝，同时在后台按正常流程确认（通常只需读取数据库）；
+        // 确认的结果进入内存缓存，过滤器误判的IP随后的连接使用真实的结果
+        if (deniedTracker != null && deniedTracker.mightContain(key)) {
+            metrics.increment(Metrics.Counter.DENIED_FILTER_HIT);
+            lookup(key);
+            metrics.recordVerdict(KNOWN_DENIED, startNanos);
+            return CompletableFuture.completedFuture(KNOWN_DENIED);
+        }
+
+        // 地址段表能确定不属于中国地区时直接拒绝，无需查询；大量连接时只计数，不逐个记录日志
+        Verdict ranged = checkRegionRanges(key);
+        if (ranged != null) {
+            metrics.increment(Metrics.Counter.REGION_RANGE_REJECTED);
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("IP地址段不属于允许的地区: " + key + " -> " + ranged);
+            }
+            metrics.recordVerdict(ranged, startNanos);
+            return CompletableFuture.completedFuture(ranged);
+        }
+
+        long timeoutMillis = settings.getLookupTimeoutMillis();
+
+        // 复制一份再设置超时，避免超时影响共享的检测任务
+        return lookup(key).copy()
+            .orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+            .exceptionally(throwable -> {
+                Throwable cause = unwrap(throwable);
+                if (cause instanceof RejectedExecutionException) {
+                    logger.warning("IP检测队列已满，拒绝连接: " + key);
+                    metrics.increment(Metrics.Counter.ERROR);
+                    return Verdict.of(Verdict.Reason.OVERLOADED);
+                }
+                metrics.increment(cause instanceof TimeoutException ? Metrics.Counter.TIMEOUT : Metrics.Counter.ERROR);
+                Verdict failed;
+                if (cause instanceof TimeoutException) {
+                    logger.warning("IP检测超时 (" + timeoutMillis + "ms): " + key);
+                    failed = Verdict.of(Verdict.Reason.TIMEOUT);
+                } else if (cause instanceof RateLimitedException) {
+                    logger.warning("IP地理位置API额度不足: " + key + " - " + cause.getMessage());
+                    failed = Verdict.of(Verdict.Reason.RATE_LIMITED);
+                } else {
+                    logger.warning("无法检测IP归属地: " + key + " - " + cause.getMessage());
+                    failed = Verdict.of(Verdict.Reason.LOOKUP_FAILED);
+                }
+                // 在线数据源不可用时按配置的策略处理，数据源明确没有该IP的信息时仍然拒绝
+                if (cause instanceof TimeoutException || cause instanceof ProvidersUnavailableException) {
+                    return applyOutagePolicy(key, address, failed);
+                }
+                // 出现异常时，拒绝连接以确保安全性
+                return failed;
+            })
+            .thenApply(verdict -> {
+                metrics.recordVerdict(verdict, startNanos);
+                return verdict;
+            });
+    }
+
+    /**
+     * 在线数据源不可用时，根据策略决定是拒绝、使用过期结果还是暂时放行
+     */
+    private Verdict applyOutagePolicy(IpKey key, InetAddress address, Verdict failed) {
+        switch (settings.getOutagePolicy()) {
+            case ALLOW_IF_CACHED_STALE:
+                Verdict stale = verdictCache != null ? verdictCache.getStale(key) : null;
+                if (stale != null) {
+                    logger.info("在线数据源不可用，使用过期的检测结果: " + key + " -> " + stale);
+                    return stale;
+                }
+                logger.warning("在线数据源不可用且没有过期的检测结果，拒绝连接: " + key);
+                return failed;
+            case ALLOW_AND_RECHECK:
+                if (scheduleRecheck(key, address)) {
+                    logger.warning("在线数据源不可用，暂时放行并稍后重新检测: " + key);
+                    return Verdict.of(Verdict.Reason.ALLOWED_UNVERIFIED);
+                }
+                logger.warning("等待重新检测的IP过多，拒绝连接: " + key);
+                return failed;
+            default:
+                logger.warning("在线数据源不可用，拒绝连接: " + key);
+                return failed;
+        }
+    }
+
+    /**
+     * 设置重新检测未通过时的回调，平台插件在其中踢出使用该IP的玩家；回调在检测线程上执行
+     */
+    public void setRecheckListener(BiConsumer<InetAddress, Verdict> recheckListener) {
+        this.recheckListener = recheckListener;
+    }
+
+    /**
+     * 记录需要重新检测的IP，等待的IP过多时返回 false
+     */
+    private boolean scheduleRecheck(IpKey key, InetAddress address) {
+        if (pendingRechecks.size() >= MAX_PENDING_RECHECKS && !pendingRechecks.containsKey(key)) {
+            return false;
+        }
+        pendingRechecks.put(key, address);
+        scheduleRecheckRound();
+        return true;
+    }
+
+    private void scheduleRecheckRound() {
+        if (!closed && recheckScheduled.compareAndSet(false, true)) {
+            CompletableFuture.delayedExecutor(settings.getRecheckIntervalSeconds(), TimeUnit.SECONDS)
+                .execute(this::runRechecks);
+        }
+    }
+
+    /**
+     * 重新检测暂时放行的IP；数据源仍不可用的IP留到下一轮，熔断器借此进行半开试探
+     */
+    private void runRechecks() {
+        recheckScheduled.set(false);
+        if (closed) {
+            return;
+        }
+        for (Map.Entry<IpKey, InetAddress> entry : pendingRechecks.entrySet()) {
+            IpKey key = entry.getKey();
+            InetAddress address = entry.getValue();
+            lookup(key).whenComplete((result, throwable) -> {
+                Verdict verdict = result;
+                if (throwable != null) {
+                    Throwable cause = unwrap(throwable);
+                    if (cause instanceof ProvidersUnavailableException || cause instanceof RejectedExecutionException) {
+                        return;
+                    }
+                    verdict = Verdict.of(Verdict.Reason.LOOKUP_FAILED);
+                }
+                if (!pendingRechecks.remove(key, address)) {
+                    return;
+                }
+                if (verdict.isAllowed()) {
+                    logger.info("重新检测通过: " + key + " -> " + verdict);
+                    return;
+                }
+                logger.warning("重新检测未通过: " + key + " -> " + verdict);
+                BiConsumer<InetAddress, Verdict> listener = recheckListener;
+                if (listener != null) {
+                    listener.accept(address, verdict);
+                }
+            });
+        }
+        if (!pendingRechecks.isEmpty()) {
+            scheduleRecheckRound();
+        }
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        return throwable instanceof CompletionException && throwable.getCause() != null
+            ? throwable.getCause() : throwable;
+    }
+
+    /**
+     * 提前开始检测IP（例如在服务器列表Ping时），随后的登录可直接使用结果
+     */
+    public void prefetch(InetAddress address) {
+        IpKey key = IpKey.of(address);
+        if (verdictCache != null && verdictCache.get(key) != null) {
+            return;
+        }
+        // 已被限流的来源不值得花费在线查询额度
+        ConnectionRateLimiter limiter = rateLimiter;
+        if (limiter != null && limiter.isLimited(key)) {
+            return;
+        }
+        if (checkRegionRanges(key) != null) {
+            return;
+        }
+        lookup(key);
+    }
+
+    /**
+     * 连接建立时（协议解码之前）的快速检测，只使用内存中的数据，不进行任何I/O：
+     * 超过连接频率上限、内存缓存中的结果为拒绝或命中已知拒绝过滤器时返回拒绝的结果，
+     * 其余情况返回 null，由登录时的完整检测决定
+     * <p>
+     * 服务器列表Ping同样经过这里，因此不计入连接次数
+     */
+    public Verdict checkEarly(InetAddress address) {
+        IpKey key = IpKey.of(address);
+        Verdict verdict = null;
+        ConnectionRateLimiter limiter = rateLimiter;
+        if (limiter != null && limiter.isLimited(key)) {
+            verdict = THROTTLED;
+        } else if (verdictCache != null) {
+            Verdict cached = verdictCache.get(key);
+            if (cached != null) {
+                verdict = cached.isAllowed() ? null : cached;
+            } else if (deniedTracker != null && deniedTracker.mightContain(key)) {
+                // 与 check 相同，后台确认的结果进入内存缓存，误判的IP重连时不再被拒绝
+                lookup(key);
+                verdict = KNOWN_DENIED;
+            }
+        }
+        if (verdict != null) {
+            metrics.increment(Metrics.Counter.EARLY_REJECTED);
+        }
+        return verdict;
+    }
+
+    /**
+     * 通过地址段表判断IP所属国家，能直接拒绝时返回结果，属于中国地区或未知时返回 null
+     */
+    private Verdict checkRegionRanges(IpKey key) {
+        if (regionRanges == null) {
+            return null;
+        }
+        String countryCode = regionRanges.countryOf(key);
+        if (countryCode == null) {
+            return null;
+        }
+        if (!ChinaRegions.contains(countryCode)) {
+            return Verdict.of(Verdict.Reason.NOT_CHINA_REGION, countryCode);
+        }
+        EngineSettings current = settings;
+        if (current.isEnableRegionRestriction() && current.isRegionDenied(countryCode)) {
+            return Verdict.of(Verdict.Reason.REGION_DENIED, countryCode);
+        }
+        // 中国地区的IP仍需检查是否为代理
+        return null;
+    }
+
+    /**
+     * 获取IP的检测任务，同一IP正在进行或刚完成的检测会被复用
+     */
+    private CompletableFuture<Verdict> lookup(IpKey key) {
+        CompletableFuture<Verdict> existing = lookupFutures.get(key);
+        if (existing != null) {
+            coalescedLookups.increment();
+            return existing;
+        }
+
+        CompletableFuture<Verdict> future = new CompletableFuture<>();
+        existing = lookupFutures.putIfAbsent(key, future);
+        if (existing != null) {
+            coalescedLookups.increment();
+            return existing;
+        }
+
+        try {
+            lookupExecutor.execute(() -> {
+                try {
+                    // 数据源使用标准化后的地址，内嵌IPv4的IPv6地址按对应的IPv4地址查询
+                    String ip = key.toString();
+                    InetAddress address = key.toInetAddress();
+                    Verdict verdict = resolveLocally(key, ip, address);
+                    if (verdict != null) {
+                        future.complete(verdict);
+                    } else {
+                        resolveRemotely(key, ip, address, future);
+                    }
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            lookupFutures.remove(key, future);
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        // 结果保留一段时间供随后的登录使用；失败的检测也短暂保留，避免同一IP反复重连时不断请求API
+        EngineSettings current = settings;
+        future.whenComplete((verdict, throwable) -> {
+            if (verdict != null && verdictCache != null && verdict.isCacheable()) {
+                verdictCache.put(key, verdict);
+            }
+            long retainSeconds = throwable == null ? current.getPrefetchTtlSeconds() : current.getFailedLookupRetainSeconds();
+            // 队列已满属于瞬时状态，只用于本次检测的结果也不保留
+            if (retainSeconds == 0L || unwrap(throwable) instanceof RejectedExecutionException
+                || (verdict != null && !verdict.isCacheable())) {
+                lookupFutures.remove(key, future);
+            } else {
+                CompletableFuture.delayedExecutor(retainSeconds, TimeUnit.SECONDS)
+                    .execute(() -> lookupFutures.remove(key, future));
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 通过在线数据源获取IP信息，等待期间不占用检测线程
+     */
+    private void resolveRemotely(IpKey key, String ip, InetAddress address, CompletableFuture<Verdict> future) {
+        long remoteStartNanos = System.nanoTime();
+        providerChain.lookup(ip, address).whenComplete((answer, throwable) -> {
+            metrics.histogram(Metrics.Stage.REMOTE).recordSince(remoteStartNanos);
+            // 数据源都明确没有该IP的信息不算出错；由本地替补给出结果说明在线数据源都已失败
+            Throwable cause = unwrap(throwable);
+            metrics.increment(cause instanceof ProvidersUnavailableException || cause instanceof RejectedExecutionException
+                || (answer != null && !answer.provider.isRemote())
+                ? Metrics.Counter.REMOTE_ERROR : Metrics.Counter.REMOTE_SUCCESS);
+            if (throwable != null) {
+                future.completeExceptionally(throwable);
+                return;
+            }
+            // 保存数据库等操作回到检测线程执行，避免阻塞HTTP或批量发送线程
+            try {
+                lookupExecutor.execute(() -> {
+                    try {
+                        Verdict verdict = applyRemoteInfo(key, ip, answer.info, answer.provider);
+                        if (!answer.provider.isRemote() && verdict.isAllowed()) {
+                            // 本地替补无法排除代理，只能用来直接拒绝；允许的结果按 outage.policy 处理
+                            future.completeExceptionally(new ProvidersUnavailableException(
+                                "在线数据源不可用，" + answer.provider.getName() + " 无法确认该IP不是代理"));
+                            return;
+                        }
+                        future.complete(verdict);
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * 依次使用本地离线数据库和SQLite缓存检测IP，需要远程查询时返回 null
+     */
+    private Verdict resolveLocally(IpKey key, String ip, InetAddress address) throws IOException {
+        EngineSettings current = settings;
+
+        // 本地离线数据库不需要网络I/O，优先使用
+        if (localProvider != null) {
+            IPInfo localInfo = localProvider.lookup(ip, address);
+            // 本地数据库通常缺少代理信息，可配置为对中国地区的IP继续使用远程API确认
+            if (localInfo != null && !(current.isRemoteCheckForChina() && current.isRemoteFallback() && localInfo.isChinaRegion())) {
+                Verdict verdict = evaluate(localInfo);
+                logger.info("从本地IP数据库中获取IP信息: " + ip + " -> " + verdict);
+                return verdict;
+            }
+        }
+
+        // 从数据库中查找IP信息，过期的信息仍然使用，同时安排后台刷新，登录不需要等待
+        if (databaseManager != null) {
+            long databaseStartNanos = System.nanoTime();
+            IPInfo ipInfo = databaseManager.getIPInfo(key);
+            metrics.histogram(Metrics.Stage.DATABASE).recordSince(databaseStartNanos);
+            metrics.increment(ipInfo != null ? Metrics.Counter.DATABASE_HIT : Metrics.Counter.DATABASE_MISS);
+            if (ipInfo != null) {
+                long ageSeconds = ageSeconds(ipInfo);
+                boolean canRefresh = localProvider == null || current.isRemoteFallback();
+                if (canRefresh && current.getIpInfoExpireAfterSeconds() > 0 && ageSeconds >= current.getIpInfoExpireAfterSeconds()) {
+                    logger.info("数据库中的IP信息已失效，重新查询: " + ip);
+                } else {
+                    Verdict verdict = evaluate(ipInfo);
+                    if (canRefresh && current.getIpInfoRefreshAfterSeconds() > 0 && ageSeconds >= current.getIpInfoRefreshAfterSeconds()) {
+                        scheduleRefresh(key, address);
+                        logger.info("从数据库中获取IP信息（已过期，将在后台刷新）: " + ip + " -> " + verdict);
+                    } else {
+                        logger.info("从数据库中获取IP信息: " + ip + " -> " + verdict);
+                    }
+                    return verdict;
+                }
+            }
+        }
+
+        // 已配置本地数据库但未启用远程API时不再继续查询
+        if (localProvider != null && !current.isRemoteFallback()) {
+            throw new IOException("本地IP数据库中没有该IP的信息");
+        }
+
+        // 数据库中没有找到，需要通过API检测IP归属地
+        return null;
+    }
+
+    private static long ageSeconds(IPInfo ipInfo) {
+        if (ipInfo.getLastUpdated() == null) {
+            return Long.MAX_VALUE;
+        }
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - ipInfo.getLastUpdated().getTime());
+    }
+
+    /**
+     * 记录需要在后台刷新的IP，已在等待或正在刷新的IP不会重复加入
+     */
+    private void scheduleRefresh(IpKey key, InetAddress address) {
+        if (refreshesInFlight.contains(key)
+            || (pendingRefreshes.size() >= MAX_PENDING_REFRESHES && !pendingRefreshes.containsKey(key))) {
+            return;
+        }
+        pendingRefreshes.putIfAbsent(key, address);
+        scheduleRefreshRound();
+    }
+
+    private void scheduleRefreshRound() {
+        if (!closed && refreshScheduled.compareAndSet(false, true)) {
+            CompletableFuture.delayedExecutor(settings.getRefreshIntervalSeconds(), TimeUnit.SECONDS)
+                .execute(this::runRefreshes);
+        }
+    }
+
+    /**
+     * 在额度允许的范围内刷新一批过期的IP信息，其余的留到下一轮
+     */
+    private void runRefreshes() {
+        refreshScheduled.set(false);
+        if (closed) {
+            return;
+        }
+        int budget = refreshBudget(settings);
+        Iterator<Map.Entry<IpKey, InetAddress>> iterator = pendingRefreshes.entrySet().iterator();
+        for (int started = 0; started < budget && iterator.hasNext(); started++) {
+            Map.Entry<IpKey, InetAddress> entry = iterator.next();
+            iterator.remove();
+            IpKey key = entry.getKey();
+            String ip = key.toString();
+            InetAddress address = entry.getValue();
+            refreshesInFlight.add(key);
+            // 刷新失败时保留旧信息，下次使用时会重新安排刷新
+            providerChain.lookup(ip, address).whenComplete((answer, throwable) -> {
+                if (throwable != null || !answer.provider.isRemote() || !answer.provider.isProxyAuthoritative()) {
+                    refreshesInFlight.remove(key);
+                    return;
+                }
+                try {
+                    lookupExecutor.execute(() -> {
+                        try {
+                            applyRefresh(key, ip, answer);
+                        } finally {
+                            refreshesInFlight.remove(key);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    refreshesInFlight.remove(key);
+                }
+            });
+        }
+        if (!pendingRefreshes.isEmpty()) {
+            scheduleRefreshRound();
+        }
+    }
+
+    /**
+     * 本轮最多刷新的IP数量；ip-api剩余额度不高于保留值时为0，把额度留给登录检测
+     */
+    private int refreshBudget(EngineSettings current) {
+        int remaining = apiBatching ? apiClient.getRemainingBatchRequests() : apiClient.getRemainingRequests();
+        int spare = remaining - current.getRefreshMinRemainingRequests();
+        if (spare <= 0) {
+            return 0;
+        }
+        long ips = apiBatching ? (long) spare * current.getBatchMaxSize() : spare;
+        return (int) Math.min(current.getRefreshMaxPerRound(), ips);
+    }
+
+    private void applyRefresh(IpKey key, String ip, GeoProviderChain.Answer answer) {
+        Verdict verdict = applyRemoteInfo(key, ip, answer.info, answer.provider);
+        if (verdictCache != null) {
+            verdictCache.put(key, verdict);
+        }
+        CompletableFuture<Verdict> retained = lookupFutures.get(key);
+        if (retained != null && retained.isDone()) {
+            lookupFutures.remove(key, retained);
+        }
+        logger.info("已在后台刷新IP信息: " + ip + " -> " + verdict);
+    }
+
+    /**
+     * 根据数据源返回的信息得出结果，在线数据源给出的IP信息（包括被拒绝的）会保存到数据库；
+     * 不提供代理信息的数据源的结果只用于本次检测
+     */
+    private Verdict applyRemoteInfo(IpKey key, String ip, IPInfo ipInfo, GeoProvider provider) {
+        logger.info("IP归属地信息 [" + provider.getName() + "]: " + ip + " -> " + ipInfo.getCountry() + " (" + ipInfo.getCountryCode() + "), "
+            + ipInfo.getRegion() + ", " + ipInfo.getCity() + " | ISP: " + ipInfo.getIsp()
+            + " | ORG: " + ipInfo.getOrg() + " | Proxy: " + ipInfo.isProxy());
+
+        Verdict verdict = evaluate(ipInfo);
+        if (!provider.isProxyAuthoritative()) {
+            // 无法排除代理，不保存也不缓存，之后的连接重新查询
+            logger.info("数据源 " + provider.getName() + " 不提供代理信息，结果只用于本次检测: " + ip + " -> " + verdict);
+            return verdict.uncached();
+        }
+        switch (verdict.getReason()) {
+            case PROXY:
+                logger.warning("IP被标记为代理/VPN服务: " + ip);
+                break;
+            case PROXY_KEYWORD:
+                logger.warning("IP来自中国但ISP/ORG可能为代理服务: " + ipInfo.getIsp() + " | " + ipInfo.getOrg());
+                break;
+            case REGION_DENIED:
+                logger.info("IP来自被拒绝的地区: " + ipInfo.getCountryCode() + " - " + ip);
+                break;
+            case NOT_CHINA_REGION:
+                // 同样只保存该IP自身的记录，不因一次查询拒绝整个网段
+                break;
+            default:
+                // 将IP信息保存到数据库，写入后已知拒绝过滤器随之更新；本地替补数据源的结果不保存
+                if (databaseManager != null && provider.isRemote()) {
+                    databaseManager.saveIPInfo(key, ipInfo);
+                }
+                return verdict;
+        }
+        // 被拒绝的IP同样保存，重复连接时无需再次查询；启用网段缓存时只保存该IP自身的记录，
+        // 覆盖同一网段中允许连接的记录，同一网段的其他IP仍按各自的查询结果处理
+        if (databaseManager != null && provider.isRemote()) {
+            databaseManager.saveExactIPInfo(key, ipInfo);
+        }
+        return verdict;
+    }
+
+    /**
+     * 根据IP信息和当前配置得出是否允许连接
+     */
+    Verdict evaluate(IPInfo ipInfo) {
+        return evaluate(ipInfo, metrics.histogram(Metrics.Stage.KEYWORDS));
+    }
+
+    /**
+     * @param keywordLatency 记录关键词匹配耗时的直方图，为 null 时不记录（如重建过滤器时）
+     */
+    private Verdict evaluate(IPInfo ipInfo, LatencyHistogram keywordLatency) {
+        String countryCode = ipInfo.getCountryCode();
+
+        // 如果IP被API标记为代理/VPN，则拒绝
+        if (ipInfo.isProxy()) {
+            return Verdict.of(Verdict.Reason.PROXY, countryCode);
+        }
+        if (!ipInfo.isChinaRegion()) {
+            return Verdict.of(Verdict.Reason.NOT_CHINA_REGION, countryCode);
+        }
+
+        // 检查ISP或ORG名称中是否包含代理/VPN相关的关键词
+        EngineSettings current = settings;
+        ProxyKeywords keywords = current.getProxyKeywords();
+        long keywordStartNanos = System.nanoTime();
+        boolean keywordMatched = keywords.matches(ipInfo.getIsp()) || keywords.matches(ipInfo.getOrg());
+        if (keywordLatency != null) {
+            keywordLatency.recordSince(keywordStartNanos);
+        }
+        if (keywordMatched) {
+            return Verdict.of(Verdict.Reason.PROXY_KEYWORD, countryCode);
+        }
+
+        // 检查地区限制
+        if (current.isEnableRegionRestriction() && current.isRegionDenied(countryCode)) {
+            return Verdict.of(Verdict.Reason.REGION_DENIED, countryCode);
+        }
+
+        return Verdict.of(Verdict.Reason.ALLOWED, countryCode);
+    }
+
+    /**
+     * 停止检测线程，写入剩余的IP信息后关闭数据库连接
+     */
+    public void close() {
+        closed = true;
+        if (prometheusExporter != null) {
+            prometheusExporter.close();
+        }
+        pendingRechecks.clear();
+        pendingRefreshes.clear();
+        lookupExecutor.shutdownNow();
+        lookupFutures.clear();
+        providerChain.close();
+        geoHttp.close();
+        if (localProvider != null) {
+            localProvider.close();
+        }
+        if (deniedTracker != null) {
+            deniedTracker.close();
+        }
+        if (databaseManager != null) {
+            databaseManager.close();
+        }
+    }
+}
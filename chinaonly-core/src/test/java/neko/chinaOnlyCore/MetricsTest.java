@@ -0,0 +1,31 @@
+package neko.chinaOnlyCore;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsTest {
+
+    /**
+     * Prometheus遇到重复的TYPE行会拒绝整次抓取
+     */
+    @Test
+    void eachMetricHasOneTypeLine() {
+        Metrics metrics = new Metrics();
+        metrics.registerGauge(Metrics.Gauge.IP_API_REMAINING, () -> 45L);
+        metrics.registerGauge(Metrics.Gauge.IP_API_BATCH_REMAINING, () -> 15L);
+
+        Set<String> names = new HashSet<>();
+        for (String line : metrics.toPrometheus().split("\n")) {
+            if (line.startsWith("# TYPE ")) {
+                String name = line.split(" ")[2];
+                assertTrue(names.add(name), "重复的TYPE行: " + name);
+            }
+        }
+        assertTrue(names.contains("chinaonly_cache_lookups_total"));
+        assertTrue(names.contains("chinaonly_ip_api_remaining_requests"));
+    }
+}